@@ -0,0 +1,61 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * Measure the bytes allocated by every query type, for the queries of input file.
+ * Usage: java AllocationBenchmark input.txt [input.txt ...]
+ * (the first line of the input is the network, relative to the input file)
+ */
+public class AllocationBenchmark {
+    /**
+     * count of runs of every query before measuring
+     */
+    private static final int WARMUP = 200;
+
+    /**
+     * count of measured runs of every query
+     */
+    private static final int RUNS = 200;
+
+    public static void main(String[] args) throws Exception {
+        for (String inputPath : args) {
+            File inputFile = new File(inputPath);
+            Scanner scanner = new Scanner(inputFile);
+            BNetwork network = new BNetwork(new File(inputFile.getParentFile(), scanner.nextLine()).getPath());
+
+            // the queries, without the type
+            Set<String> queriesInputs = new LinkedHashSet<>();
+            while (scanner.hasNext()) {
+                String line = scanner.nextLine();
+                queriesInputs.add(line.substring(0, line.lastIndexOf(',')));
+            }
+
+            System.out.println(inputPath);
+            for (int type = 1; type <= 4; type++) {
+                long bytes = 0;
+                long time = 0;
+
+                for (String queryInput : queriesInputs) {
+                    Query query = new Query(network, queryInput + "," + type);
+
+                    for (int i = 0; i < WARMUP; i++) {
+                        query.results = new QueryResults();
+                        Algorithms.callQuery(query, network);
+                    }
+
+                    long startBytes = BenchUtils.allocatedBytes();
+                    long start = System.nanoTime();
+                    for (int i = 0; i < RUNS; i++) {
+                        query.results = new QueryResults();
+                        Algorithms.callQuery(query, network);
+                    }
+                    time += System.nanoTime() - start;
+                    bytes += BenchUtils.allocatedBytes() - startBytes;
+                }
+
+                long runs = (long) RUNS * queriesInputs.size();
+                System.out.printf("  type %d: %10d bytes allocated per query, %10.1f us per query%n", type, bytes / runs, time / 1e3 / runs);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Utils for the benchmarks
+ */
+public class BenchUtils {
+    /**
+     * get the bytes allocated by the current thread
+     *
+     * @return allocated bytes
+     */
+    static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * create query without evidences, for counting the operations of the kernels
+     *
+     * @param network the network
+     * @return query of the first variable
+     */
+    static Query emptyQuery(BNetwork network) {
+        VariableClass variableClass = network.variableClasses[0];
+        return new Query(network, "P(" + variableClass.getName() + "=" + variableClass.getValueName(0) + "),1");
+    }
+
+    /**
+     * create factor with random probabilities
+     *
+     * @param network the network of the variables
+     * @param variables the factor variables
+     * @param random the random
+     * @return the factor
+     */
+    static Factor randomFactor(BNetwork network, int[] variables, Random random) {
+        int length = 1;
+        for (int variable : variables) {
+            length *= network.variablesLengths[variable];
+        }
+
+        double[] probabilities = new double[length];
+        for (int i = 0; i < length; i++) {
+            probabilities[i] = random.nextDouble();
+        }
+
+        return new Factor(variables, probabilities);
+    }
+
+    /**
+     * choose random variables of the network
+     *
+     * @param network the network
+     * @param count count of variables
+     * @param random the random
+     * @return the variables keys
+     */
+    static int[] randomVariables(BNetwork network, int count, Random random) {
+        List<Integer> variables = new ArrayList<>();
+        for (int i = 0; i < network.variableClasses.length; i++) {
+            variables.add(i);
+        }
+        Collections.shuffle(variables, random);
+
+        return variables.subList(0, Math.min(count, variables.size())).stream().mapToInt(i -> i).toArray();
+    }
+
+    /**
+     * get the median of times
+     *
+     * @param times the times, sorted by the method
+     * @return the median
+     */
+    static long median(long[] times) {
+        Arrays.sort(times);
+        return times[times.length / 2];
+    }
+}
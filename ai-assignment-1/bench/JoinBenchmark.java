@@ -0,0 +1,87 @@
+import java.util.*;
+
+/**
+ * Compare the jumps (strides) join kernel of Algorithms against the previous join kernel.
+ * Usage: java JoinBenchmark network.xml [network.xml ...]
+ */
+public class JoinBenchmark {
+    /**
+     * count of joins before measuring
+     */
+    private static final int WARMUP = 2000;
+
+    /**
+     * count of measured joins
+     */
+    private static final int RUNS = 200;
+
+    /**
+     * the sizes of the benchmarks factors - variables of A, variables of B, shared variables
+     */
+    private static final int[][] SHAPES = {{3, 3, 1}, {5, 4, 2}, {7, 6, 3}, {9, 8, 4}};
+
+    /**
+     * measure join kernel
+     *
+     * @param reference use the previous kernel
+     * @param network the network
+     * @param query query for the counters
+     * @param factorA factor A
+     * @param factorB factor B
+     * @return median time of join in nanoseconds
+     */
+    private static long measure(boolean reference, BNetwork network, Query query, Factor factorA, Factor factorB) {
+        for (int i = 0; i < WARMUP; i++) {
+            join(reference, network, query, factorA, factorB);
+        }
+
+        long[] times = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            join(reference, network, query, factorA, factorB);
+            times[i] = System.nanoTime() - start;
+        }
+
+        return BenchUtils.median(times);
+    }
+
+    private static Factor join(boolean reference, BNetwork network, Query query, Factor factorA, Factor factorB) {
+        return reference ? ReferenceKernels.join(network, query, factorA, factorB) : Algorithms.join(network, query, factorA, factorB);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(1);
+
+        for (String filepath : args) {
+            BNetwork network = new BNetwork(filepath);
+            System.out.println(filepath);
+
+            for (int[] shape : SHAPES) {
+                if (shape[0] + shape[1] - shape[2] > network.variableClasses.length) {
+                    continue;
+                }
+
+                int[] variables = BenchUtils.randomVariables(network, shape[0] + shape[1] - shape[2], random);
+                Factor factorA = BenchUtils.randomFactor(network, Arrays.copyOfRange(variables, 0, shape[0]), random);
+                Factor factorB = BenchUtils.randomFactor(network, Arrays.copyOfRange(variables, shape[0] - shape[2], variables.length), random);
+
+                // the kernels must give the same factor and the same count of multiplies
+                Query referenceQuery = BenchUtils.emptyQuery(network);
+                Query query = BenchUtils.emptyQuery(network);
+                Factor expected = ReferenceKernels.join(network, referenceQuery, factorA, factorB);
+                Factor actual = Algorithms.join(network, query, factorA, factorB);
+                if (!Arrays.equals(expected.probabilities, actual.probabilities) || referenceQuery.results.multiplies != query.results.multiplies) {
+                    System.out.println("  the kernels gave different results");
+                    continue;
+                }
+
+                long referenceTime = measure(true, network, referenceQuery, factorA, factorB);
+                long time = measure(false, network, query, factorA, factorB);
+
+                System.out.printf("  %d x %d variables (%d shared), %8d probabilities: previous %10.1f us, jumps %10.1f us (x%.1f)%n",
+                        shape[0], shape[1], shape[2], actual.probabilities.length,
+                        referenceTime / 1e3, time / 1e3, (double) referenceTime / time);
+            }
+        }
+    }
+}
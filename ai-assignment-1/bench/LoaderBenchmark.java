@@ -0,0 +1,109 @@
+import java.io.File;
+import java.util.*;
+
+/**
+ * Compare the startup of loading network by streaming the XML (StAX), by DOM and from compiled binary file.
+ * Usage: java LoaderBenchmark network.xml [network.xml ...]
+ */
+public class LoaderBenchmark {
+    /**
+     * count of loads before measuring
+     */
+    private static final int WARMUP = 20;
+
+    /**
+     * count of measured loads
+     */
+    private static final int RUNS = 20;
+
+    /**
+     * the loaders
+     */
+    private enum Loader { STAX, DOM, BINARY }
+
+    /**
+     * load network by loader
+     *
+     * @param filepath the network file (compiled file for the binary loader)
+     * @param loader the loader
+     * @return the network
+     */
+    private static BNetwork load(String filepath, Loader loader) throws Exception {
+        switch (loader) {
+            case DOM:
+                return new BNetwork(filepath, true);
+            case BINARY:
+                return BinaryNetwork.load(filepath);
+            default:
+                return new BNetwork(filepath, false);
+        }
+    }
+
+    /**
+     * load network and measure the loading
+     *
+     * @param filepath the network file
+     * @param loader the loader
+     * @return time in nanoseconds and allocated bytes
+     */
+    private static long[] measure(String filepath, Loader loader) throws Exception {
+        long bytes = BenchUtils.allocatedBytes();
+        long start = System.nanoTime();
+
+        load(filepath, loader);
+
+        long time = System.nanoTime() - start;
+        return new long[]{time, BenchUtils.allocatedBytes() - bytes};
+    }
+
+    /**
+     * measure loading of network by single path
+     *
+     * @param filepath the network file
+     * @param loader the loader
+     * @return the median time of the loads after the warmup, allocated bytes per load
+     */
+    private static long[] benchmark(String filepath, Loader loader) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            measure(filepath, loader);
+        }
+
+        long[] times = new long[RUNS];
+        long bytes = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long[] result = measure(filepath, loader);
+            times[i] = result[0];
+            bytes += result[1];
+        }
+
+        Arrays.sort(times);
+        return new long[]{times[RUNS / 2], bytes / RUNS};
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (String filepath : args) {
+            File compiled = File.createTempFile("network", BinaryNetwork.EXTENSION);
+            compiled.deleteOnExit();
+            BinaryNetwork.write(new BNetwork(filepath), compiled.getPath());
+
+            // all the loaders must load the same network
+            BNetwork stax = load(filepath, Loader.STAX);
+            boolean same = true;
+            for (Loader loader : Loader.values()) {
+                BNetwork network = load(loader == Loader.BINARY ? compiled.getPath() : filepath, loader);
+                same = same && Arrays.deepEquals(stax.CPTs, network.CPTs) && Arrays.deepEquals(stax.parents, network.parents);
+            }
+
+            if (!same) {
+                System.out.println(filepath + ": the loaders loaded different networks");
+                continue;
+            }
+
+            System.out.printf("%s (%d variables)%n", filepath, stax.variableClasses.length);
+            for (Loader loader : Loader.values()) {
+                long[] results = benchmark(loader == Loader.BINARY ? compiled.getPath() : filepath, loader);
+                System.out.printf("  %-6s %10.3f ms, %12d bytes allocated%n", loader, results[0] / 1e6, results[1]);
+            }
+        }
+    }
+}
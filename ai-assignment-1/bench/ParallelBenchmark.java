@@ -0,0 +1,110 @@
+import java.util.*;
+
+/**
+ * Compare the factors kernels on big factors, sequential and in parallel (ForkJoinPool).
+ * Usage: java ParallelBenchmark network.xml [network.xml ...]
+ */
+public class ParallelBenchmark {
+    /**
+     * count of runs before measuring
+     */
+    private static final int WARMUP = 10;
+
+    /**
+     * count of measured runs
+     */
+    private static final int RUNS = 10;
+
+    /**
+     * min length of the joined factor
+     */
+    private static final int MIN_LENGTH = 1 << 21;
+
+    /**
+     * measure join and sum-product of the factors
+     *
+     * @param network the network
+     * @param factorA factor A
+     * @param factorB factor B
+     * @param variable the variable to eliminate
+     * @param parallel run the kernels in parallel
+     * @return the median times of join and of sum-product in nanoseconds
+     */
+    private static long[] measure(BNetwork network, Factor factorA, Factor factorB, int variable, boolean parallel) {
+        ParallelFactors.setThreshold(parallel ? 0 : Integer.MAX_VALUE);
+        Query query = BenchUtils.emptyQuery(network);
+        List<Factor> factors = Arrays.asList(factorA, factorB);
+
+        long[] joinTimes = new long[RUNS];
+        long[] sumProductTimes = new long[RUNS];
+        for (int i = 0; i < WARMUP + RUNS; i++) {
+            long start = System.nanoTime();
+            Algorithms.join(network, query, factorA, factorB);
+            long joinTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Algorithms.sumProduct(network, query, factors, variable, true);
+            long sumProductTime = System.nanoTime() - start;
+
+            if (i >= WARMUP) {
+                joinTimes[i - WARMUP] = joinTime;
+                sumProductTimes[i - WARMUP] = sumProductTime;
+            }
+        }
+
+        return new long[]{BenchUtils.median(joinTimes), BenchUtils.median(sumProductTimes)};
+    }
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(1);
+
+        for (String filepath : args) {
+            BNetwork network = new BNetwork(filepath);
+
+            // take variables until the joined factor is big enough
+            int[] variables = BenchUtils.randomVariables(network, network.variableClasses.length, random);
+            int count = 0;
+            long length = 1;
+            while (count < variables.length && length < MIN_LENGTH) {
+                length *= network.variablesLengths[variables[count]];
+                count++;
+            }
+
+            if (length < MIN_LENGTH) {
+                System.out.println(filepath + ": the network is too small");
+                continue;
+            }
+
+            int half = count / 2;
+            Factor factorA = BenchUtils.randomFactor(network, Arrays.copyOfRange(variables, 0, half + 1), random);
+            Factor factorB = BenchUtils.randomFactor(network, Arrays.copyOfRange(variables, half, count), random);
+            int variable = variables[half];
+
+            // sequential and parallel must give the same factors and counts
+            Query sequentialQuery = BenchUtils.emptyQuery(network);
+            Query parallelQuery = BenchUtils.emptyQuery(network);
+            ParallelFactors.setThreshold(Integer.MAX_VALUE);
+            Factor sequential = Algorithms.sumProduct(network, sequentialQuery, Arrays.asList(factorA, factorB), variable, false);
+            Factor sequentialJoin = Algorithms.join(network, sequentialQuery, factorA, factorB);
+            ParallelFactors.setThreshold(0);
+            Factor parallel = Algorithms.sumProduct(network, parallelQuery, Arrays.asList(factorA, factorB), variable, false);
+            Factor parallelJoin = Algorithms.join(network, parallelQuery, factorA, factorB);
+
+            if (!Arrays.equals(sequential.probabilities, parallel.probabilities) || !Arrays.equals(sequentialJoin.probabilities, parallelJoin.probabilities)
+                    || sequentialQuery.results.additions != parallelQuery.results.additions
+                    || sequentialQuery.results.multiplies != parallelQuery.results.multiplies) {
+                System.out.println(filepath + ": the sequential and the parallel kernels gave different results");
+                continue;
+            }
+
+            long[] sequentialTimes = measure(network, factorA, factorB, variable, false);
+            long[] parallelTimes = measure(network, factorA, factorB, variable, true);
+
+            System.out.printf("%s: joined factor of %d probabilities, %d threads%n", filepath, length, Runtime.getRuntime().availableProcessors());
+            System.out.printf("  join:        sequential %8.2f ms, parallel %8.2f ms (x%.1f)%n",
+                    sequentialTimes[0] / 1e6, parallelTimes[0] / 1e6, (double) sequentialTimes[0] / parallelTimes[0]);
+            System.out.printf("  sum-product: sequential %8.2f ms, parallel %8.2f ms (x%.1f)%n",
+                    sequentialTimes[1] / 1e6, parallelTimes[1] / 1e6, (double) sequentialTimes[1] / parallelTimes[1]);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.*;
+
+/**
+ * The previous implementations of the factors kernels of Algorithms,
+ * kept for comparing the benchmarks of the current kernels against them.
+ */
+public class ReferenceKernels {
+    /**
+     * Join two factors, by rebuilding the factors indexes for every probability
+     *
+     * @param network the network of the factors
+     * @param query the query of the factors
+     * @param factorA factor A
+     * @param factorB factor B
+     * @return joined factor
+     */
+    static public Factor join(BNetwork network, Query query, Factor factorA, Factor factorB) {
+        // get the factor variables
+        int[] factorVariables = Algorithms.unionGroups(factorA.variables, factorB.variables);
+
+        // get the probabilities length
+        int factorProbabilitiesLength = 1;
+        for (int factorVariable : factorVariables) {
+            factorProbabilitiesLength *= network.variablesLengths[factorVariable];
+        }
+
+        // get the probabilities
+        double[] factorProbabilities = new double[factorProbabilitiesLength];
+
+        int[] values = new int[factorVariables.length];
+        Arrays.fill(values, 0);
+
+        int[] indexesA = new int[factorA.variables.length];
+        for (int i = 0; i < indexesA.length; i++) {
+            int j = 0;
+            while (factorVariables[j] != factorA.variables[i]) {
+                j++;
+            }
+
+            indexesA[i] = j;
+        }
+
+        int[] indexesB = new int[factorB.variables.length];
+        for (int i = 0; i < indexesB.length; i++) {
+            int j = 0;
+            while (factorVariables[j] != factorB.variables[i]) {
+                j++;
+            }
+
+            indexesB[i] = j;
+        }
+
+        for (int probabilityIndex = 0; probabilityIndex < factorProbabilitiesLength; probabilityIndex++) {
+            // add new probability to the new factor
+            int cptIndexA = 0;
+            int jumpA = 1;
+            int cptIndexB = 0;
+            int jumpB = 1;
+
+            for (int i = 0; i < factorA.variables.length; i++) {
+                int variable = factorA.variables[i];
+
+                cptIndexA += values[indexesA[i]] * jumpA;
+
+                jumpA *= network.variablesLengths[variable];
+            }
+
+            for (int i = 0; i < factorB.variables.length; i++) {
+                int variable = factorB.variables[i];
+
+                cptIndexB += values[indexesB[i]] * jumpB;
+
+                jumpB *= network.variablesLengths[variable];
+            }
+
+            double probabilityA = factorA.probabilities[cptIndexA];
+            double probabilityB = factorB.probabilities[cptIndexB];
+
+            factorProbabilities[probabilityIndex] = probabilityA * probabilityB;
+            query.results.multiplies++;
+
+            // move to next value
+            int k = 0;
+            while (k < values.length && values[k] == network.variablesLengths[factorVariables[k]] - 1) {
+                values[k] = 0;
+                k++;
+            }
+
+            if (k < values.length) {
+                values[k]++;
+            }
+        }
+
+        // create the factor
+        return new Factor(factorVariables, factorProbabilities);
+    }
+}
@@ -0,0 +1,95 @@
+import jdk.jfr.*;
+
+import java.util.function.Consumer;
+
+/**
+ * JFR event of single query, with its profile.
+ * Needs the jdk.jfr API (Java 8u262 or newer, or Java 11 or newer), so it is built apart from the sources
+ * ("make build-jfr"), and QueryProfiler loads its emitter by the name.
+ */
+@Name("ai.assignment.Query")
+@Label("Query")
+@Category("Bayesian Network")
+@Description("Profile of single query")
+@StackTrace(false)
+public class QueryEvent extends Event {
+    @Label("Query")
+    String query;
+
+    @Label("Type")
+    int type;
+
+    @Label("Cached")
+    boolean cached;
+
+    @Label("Parse")
+    @Timespan(Timespan.NANOSECONDS)
+    long parse;
+
+    @Label("Prune")
+    @Timespan(Timespan.NANOSECONDS)
+    long prune;
+
+    @Label("Factors")
+    @Timespan(Timespan.NANOSECONDS)
+    long factors;
+
+    @Label("Eliminate")
+    @Timespan(Timespan.NANOSECONDS)
+    long eliminate;
+
+    @Label("Join")
+    @Timespan(Timespan.NANOSECONDS)
+    long join;
+
+    @Label("Largest Factor")
+    long largestFactor;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocatedBytes;
+
+    @Label("Elimination Order")
+    String eliminationOrder;
+
+    /**
+     * Emitter of the events of the profiles
+     */
+    public static class Emitter implements Consumer<QueryProfile> {
+        // Members
+        /**
+         * the network of the queries, for the variables names
+         */
+        private final BNetwork network;
+
+        /**
+         * create emitter
+         *
+         * @param network the network of the queries
+         */
+        public Emitter(BNetwork network) {
+            this.network = network;
+        }
+
+        @Override
+        public void accept(QueryProfile profile) {
+            QueryEvent event = new QueryEvent();
+            if (!event.isEnabled()) {
+                return;
+            }
+
+            event.query = profile.input;
+            event.type = profile.type;
+            event.cached = profile.cached;
+            event.parse = profile.phasesNanos[QueryProfile.PARSE];
+            event.prune = profile.phasesNanos[QueryProfile.PRUNE];
+            event.factors = profile.phasesNanos[QueryProfile.FACTORS];
+            event.eliminate = profile.phasesNanos[QueryProfile.ELIMINATE];
+            event.join = profile.phasesNanos[QueryProfile.JOIN];
+            event.largestFactor = profile.largestFactor;
+            event.allocatedBytes = profile.allocatedBytes;
+            event.eliminationOrder = QueryProfiler.eliminationOrderNames(this.network, profile, " ");
+            event.commit();
+        }
+    }
+}
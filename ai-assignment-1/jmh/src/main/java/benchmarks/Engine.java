@@ -0,0 +1,242 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bridge to the classes of the project.
+ * The project classes are in the default package, that can't be imported by the benchmarks package,
+ * so they are reached by method handles (created once, so the benchmarks measure the calls and not the lookups).
+ */
+final class Engine {
+    private static final MethodHandle NEW_NETWORK;
+    private static final MethodHandle NEW_QUERY;
+    private static final MethodHandle NEW_RESULTS;
+    private static final MethodHandle SET_RESULTS;
+    private static final MethodHandle CALL_QUERY;
+    private static final MethodHandle JOIN;
+    private static final MethodHandle ELIMINATE;
+    private static final MethodHandle CREATE_FACTORS;
+    private static final MethodHandle REQUISITE;
+    private static final MethodHandle ARENA;
+    private static final MethodHandle RELEASE_FACTOR;
+    private static final MethodHandle FACTOR_VARIABLES;
+    private static final MethodHandle FACTOR_PROBABILITIES;
+    private static final MethodHandle QUERY_VARIABLE;
+    private static final MethodHandle QUERY_EVIDENCES;
+    private static final MethodHandle VARIABLES_LENGTHS;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+            Class<?> network = Class.forName("BNetwork");
+            Class<?> query = Class.forName("Query");
+            Class<?> results = Class.forName("QueryResults");
+            Class<?> algorithms = Class.forName("Algorithms");
+            Class<?> factor = Class.forName("Factor");
+            Class<?> factors = Class.forName("[LFactor;");
+            Class<?> arena = Class.forName("FactorArena");
+            Class<?> relevance = Class.forName("Relevance");
+
+            NEW_NETWORK = lookup.unreflectConstructor(network.getConstructor(String.class));
+            NEW_QUERY = lookup.unreflectConstructor(query.getConstructor(network, String.class));
+            Constructor<?> newResults = results.getConstructor();
+            NEW_RESULTS = lookup.unreflectConstructor(newResults);
+            SET_RESULTS = lookup.unreflectSetter(query.getField("results"));
+            CALL_QUERY = lookup.unreflect(algorithms.getMethod("callQuery", query, network));
+            JOIN = lookup.unreflect(algorithms.getMethod("join", network, query, factor, factor));
+            ELIMINATE = lookup.unreflect(algorithms.getMethod("eliminate", network, query, factor, int.class));
+
+            Method createFactors = algorithms.getDeclaredMethod("variableEliminationCreateFactors",
+                    query, network, int[].class, int.class, factors, arena);
+            createFactors.setAccessible(true);
+            CREATE_FACTORS = lookup.unreflect(createFactors);
+
+            REQUISITE = lookup.unreflect(relevance.getMethod("requisite", network, query, arena));
+            ARENA = lookup.unreflect(arena.getMethod("get"));
+            RELEASE_FACTOR = lookup.unreflect(arena.getMethod("release", factor));
+            FACTOR_VARIABLES = lookup.unreflectGetter(factor.getField("variables"));
+            FACTOR_PROBABILITIES = lookup.unreflectGetter(factor.getField("probabilities"));
+            QUERY_VARIABLE = lookup.unreflectGetter(query.getField("queryVariable"));
+            QUERY_EVIDENCES = lookup.unreflectGetter(query.getField("evidencesVariables"));
+            VARIABLES_LENGTHS = lookup.unreflectGetter(network.getField("variablesLengths"));
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private Engine() {
+    }
+
+    /**
+     * resolve network parameter to xml file - name of network in the inputs directory, path of xml file,
+     * or "gen-N" for generated network of N variables (with its queries, generated once to the temp directory)
+     *
+     * @param network the parameter, example: alarm_net, /tmp/generated.xml or gen-1000
+     * @return the xml file
+     */
+    static File networkFile(String network) throws IOException {
+        if (network.endsWith(".xml")) {
+            return new File(network);
+        }
+
+        if (network.startsWith("gen-")) {
+            File directory = new File(System.getProperty("java.io.tmpdir"), "ai-assignment-1-bench");
+            File file = new File(directory, network + ".xml");
+            if (!file.exists() && (directory.isDirectory() || directory.mkdirs())) {
+                generate(Integer.parseInt(network.substring(4)), file);
+            }
+
+            return file;
+        }
+
+        return new File(System.getProperty("bench.inputs", "../inputs"), network + ".xml");
+    }
+
+    /**
+     * read the queries of the input file of network (the lines after the network path), with the type changed
+     *
+     * @param network the network parameter
+     * @param type the type of the queries
+     * @return the queries lines
+     */
+    static List<String> queriesLines(String network, int type) throws IOException {
+        File input = new File(networkFile(network).getPath().replace(".xml", "_input.txt"));
+
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(input.toPath(), StandardCharsets.UTF_8)) {
+            if (line.startsWith("P(")) {
+                lines.add(line.substring(0, line.lastIndexOf(',') + 1) + type);
+            }
+        }
+
+        return lines;
+    }
+
+    /**
+     * generate network (treewidth 4, up to 2 parents, 2-3 outcomes) and its queries (1-3 evidences)
+     *
+     * @param variables count of the variables
+     * @param file the xml file, the queries are written to *_input.txt next to it
+     */
+    private static void generate(int variables, File file) throws IOException {
+        try {
+            Class<?> generatorClass = Class.forName("NetworkGenerator");
+            Object generator = generatorClass.getConstructor().newInstance();
+            generatorClass.getField("variables").setInt(generator, variables);
+            generatorClass.getField("treewidth").setInt(generator, 4);
+            generatorClass.getField("inDegree").setInt(generator, 2);
+            generatorClass.getField("minEvidences").setInt(generator, 1);
+            generatorClass.getField("maxEvidences").setInt(generator, 3);
+            generatorClass.getField("queries").setLong(generator, 20);
+
+            generatorClass.getMethod("writeNetwork", String.class).invoke(generator, file.getPath());
+            generatorClass.getMethod("writeQueries", String.class, String.class)
+                    .invoke(generator, file.getPath().replace(".xml", "_input.txt"), file.getName());
+        } catch (ReflectiveOperationException ex) {
+            throw new IOException("can't generate " + file, ex);
+        }
+    }
+
+    // calls
+
+    static Object network(String network) throws Throwable {
+        return NEW_NETWORK.invoke(networkFile(network).getPath());
+    }
+
+    static Object query(Object network, String line) throws Throwable {
+        return NEW_QUERY.invoke(network, line);
+    }
+
+    static void resetResults(Object query) throws Throwable {
+        SET_RESULTS.invoke(query, NEW_RESULTS.invoke());
+    }
+
+    static Object callQuery(Object query, Object network) throws Throwable {
+        return CALL_QUERY.invoke(query, network);
+    }
+
+    static Object join(Object network, Object query, Object factorA, Object factorB) throws Throwable {
+        return JOIN.invoke(network, query, factorA, factorB);
+    }
+
+    static Object eliminate(Object network, Object query, Object factor, int variable) throws Throwable {
+        return ELIMINATE.invoke(network, query, factor, variable);
+    }
+
+    static int createFactors(Object query, Object network, int[] net, int netLength, Object[] factors, Object arena)
+            throws Throwable {
+        return (int) CREATE_FACTORS.invoke(query, network, net, netLength, factors, arena);
+    }
+
+    static Object arena() throws Throwable {
+        return ARENA.invoke();
+    }
+
+    static void release(Object arena, Object factor) throws Throwable {
+        RELEASE_FACTOR.invoke(arena, factor);
+    }
+
+    static Object[] newFactors(int length) throws ClassNotFoundException {
+        return (Object[]) java.lang.reflect.Array.newInstance(Class.forName("Factor"), length);
+    }
+
+    static int[] variables(Object factor) throws Throwable {
+        return (int[]) FACTOR_VARIABLES.invoke(factor);
+    }
+
+    static double[] probabilities(Object factor) throws Throwable {
+        return (double[]) FACTOR_PROBABILITIES.invoke(factor);
+    }
+
+    static int[] variablesLengths(Object network) throws Throwable {
+        return (int[]) VARIABLES_LENGTHS.invoke(network);
+    }
+
+    /**
+     * the variables of Variable Elimination of query - the requisite variables (Bayes-ball),
+     * the hidden variables first, then the query variable and the evidences
+     *
+     * @param network the network
+     * @param query the query
+     * @return the variables
+     */
+    static int[] requisiteNet(Object network, Object query) throws Throwable {
+        int[] requisite = (int[]) REQUISITE.invoke(network, query, null);
+        int queryVariable = (int) QUERY_VARIABLE.invoke(query);
+        int[] evidences = (int[]) QUERY_EVIDENCES.invoke(query);
+        for (int evidence : evidences) {
+            requisite[evidence] += 2;
+        }
+
+        int[] net = new int[requisite.length];
+        int length = 0;
+        for (int variable = 0; variable < requisite.length; variable++) {
+            if (requisite[variable] == 1 && variable != queryVariable) {
+                net[length] = variable;
+                length++;
+            }
+        }
+
+        net[length] = queryVariable;
+        length++;
+
+        for (int evidence : evidences) {
+            if (requisite[evidence] == 3) {
+                net[length] = evidence;
+                length++;
+            }
+        }
+
+        return java.util.Arrays.copyOf(net, length);
+    }
+}
@@ -0,0 +1,122 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The factor kernels of Variable Elimination on the factors of real query -
+ * creating the factors of the query, joining its two biggest factors with common variable,
+ * and eliminating variable of the joined factor.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmark {
+    /**
+     * the network - name in the inputs directory, or path of xml file (with queries file *_input.txt next to it)
+     */
+    @Param({"alarm_net", "big_net"})
+    public String network;
+
+    private Object bNetwork;
+    private Object query;
+    private int[] net;
+    private Object[] factors;
+    private Object factorA;
+    private Object factorB;
+    private Object joined;
+    private int variable;
+    private Object arena;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        this.bNetwork = Engine.network(this.network);
+        this.query = Engine.query(this.bNetwork, Engine.queriesLines(this.network, 2).get(0));
+        this.net = Engine.requisiteNet(this.bNetwork, this.query);
+        this.factors = Engine.newFactors(this.net.length);
+        this.arena = Engine.arena();
+
+        // the factors of the query, the two biggest with common variable
+        int factorsLength = Engine.createFactors(this.query, this.bNetwork, this.net, this.net.length, this.factors, this.arena);
+        long bestLength = -1;
+        for (int i = 0; i < factorsLength; i++) {
+            for (int j = i + 1; j < factorsLength; j++) {
+                long length = (long) Engine.probabilities(this.factors[i]).length * Engine.probabilities(this.factors[j]).length;
+                if (length > bestLength && common(Engine.variables(this.factors[i]), Engine.variables(this.factors[j])) != -1) {
+                    bestLength = length;
+                    this.factorA = this.factors[i];
+                    this.factorB = this.factors[j];
+                }
+            }
+        }
+
+        if (this.factorA == null) {
+            this.factorA = this.factors[0];
+            this.factorB = this.factors[0];
+        }
+
+        this.joined = Engine.join(this.bNetwork, this.query, this.factorA, this.factorB);
+        this.variable = common(Engine.variables(this.factorA), Engine.variables(this.factorB));
+        if (this.variable == -1) {
+            this.variable = Engine.variables(this.joined)[0];
+        }
+    }
+
+    /**
+     * the first common variable of groups
+     *
+     * @param groupA group A
+     * @param groupB group B
+     * @return the variable, -1 if there is no common variable
+     */
+    private static int common(int[] groupA, int[] groupB) {
+        for (int a : groupA) {
+            for (int b : groupB) {
+                if (a == b) {
+                    return a;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public Object createFactors() throws Throwable {
+        Object[] created = Engine.newFactors(this.net.length);
+        int length = Engine.createFactors(this.query, this.bNetwork, this.net, this.net.length, created, this.arena);
+
+        // back to the arena, as Variable Elimination does with its factors
+        for (int i = 0; i < length; i++) {
+            Engine.release(this.arena, created[i]);
+        }
+
+        return created;
+    }
+
+    @Benchmark
+    public Object join() throws Throwable {
+        Engine.resetResults(this.query);
+        return Engine.join(this.bNetwork, this.query, this.factorA, this.factorB);
+    }
+
+    @Benchmark
+    public Object eliminate() throws Throwable {
+        Engine.resetResults(this.query);
+        return Engine.eliminate(this.bNetwork, this.query, this.joined, this.variable);
+    }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full queries (Algorithms.callQuery) - every operation runs all the queries of the input file of the network,
+ * with the benchmark type. The queries are parsed once, so only the inference is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+    /**
+     * the network - name in the inputs directory, or path of xml file (with queries file *_input.txt next to it)
+     */
+    @Param({"alarm_net", "big_net"})
+    public String network;
+
+    /**
+     * the algorithm type of the queries
+     */
+    @Param({"1", "2", "3"})
+    public int type;
+
+    private Object bNetwork;
+    private Object[] queries;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        this.bNetwork = Engine.network(this.network);
+
+        List<String> lines = Engine.queriesLines(this.network, this.type);
+        this.queries = new Object[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            this.queries[i] = Engine.query(this.bNetwork, lines.get(i));
+        }
+    }
+
+    @Benchmark
+    public void callQuery(Blackhole blackhole) throws Throwable {
+        for (Object query : this.queries) {
+            Engine.resetResults(query);
+            blackhole.consume(Engine.callQuery(query, this.bNetwork));
+        }
+    }
+}
@@ -1,5 +1,4 @@
 import java.util.*;
-import java.util.stream.Collectors;
 
 public class Algorithms {
 
@@ -50,27 +49,117 @@ public class Algorithms {
     }
 
     /**
-     * print results of query
+     * calculate the distribution of distribution query by table of the query variables
      *
-     * @param results results of query
+     * @param query the query
+     * @param network the network
+     * @param variables the variables of the table - the query variables, by any order
+     * @param probabilities the probabilities of the table (not normalized), the first variable changes the fastest
      */
-    static private void printResult(QueryResults results) {
-        // printing the results
-        System.out.printf("%.05f,%d,%d%n", results.probability, results.additions, results.multiplies);
+    static private void calcDistribution(Query query, BNetwork network, int[] variables, double[] probabilities) {
+        // the jumps of the table variables in the distribution (0 for variable of single value), and their values
+        int[] jumps = new int[variables.length];
+        int[] queryValues = new int[variables.length];
+        int distributionLength = 1;
+        boolean anyValue = false;
+
+        for (int i = 0; i < query.queryVariables.length; i++) {
+            int k = 0;
+            while (variables[k] != query.queryVariables[i]) {
+                k++;
+            }
+
+            queryValues[k] = query.queryValues[i];
+            if (queryValues[k] == Query.ANY_VALUE) {
+                jumps[k] = distributionLength;
+                distributionLength *= network.variablesLengths[variables[k]];
+                anyValue = true;
+            }
+        }
+
+        // every probability of the distribution is single probability of the table
+        double[] distribution = new double[distributionLength];
+        int[] values = new int[variables.length];
+        double sum = 0;
+
+        for (int index = 0; index < probabilities.length; index++) {
+            sum = (index == 0) ? probabilities[0] : sum + probabilities[index];
+
+            boolean matches = true;
+            int distributionIndex = 0;
+            for (int k = 0; k < variables.length && matches; k++) {
+                matches = queryValues[k] == Query.ANY_VALUE || queryValues[k] == values[k];
+                distributionIndex += values[k] * jumps[k];
+            }
+
+            if (matches) {
+                distribution[distributionIndex] = probabilities[index];
+            }
+
+            // move to next value
+            int k = 0;
+            while (k < values.length && values[k] == network.variablesLengths[variables[k]] - 1) {
+                values[k] = 0;
+                k++;
+            }
+
+            if (k < values.length) {
+                values[k]++;
+            }
+        }
+        query.results.additions += probabilities.length - 1;
+
+        for (int i = 0; i < distributionLength; i++) {
+            distribution[i] /= sum;
+        }
+
+        // joint query without query variable of any value is single probability
+        if (anyValue) {
+            query.results.probabilities = distribution;
+        } else {
+            query.results.probability = distribution[0];
+        }
     }
 
     // call query
     /**
-     * call (run) a single query
+     * call (run) a single query.
+     * the network is only read, so queries of the same network can run on different threads.
+     *
+     * @param query the query
+     * @param network the network
+     * @return the results of the query
+     */
+    static public QueryResults callQuery(Query query, BNetwork network) {
+        return callQuery(query, network, null);
+    }
+
+    /**
+     * call (run) a single query, sharing the Variable Elimination work with the queries of the same evidences
      *
      * @param query the query
      * @param network the network
+     * @param group the group of the queries of the same evidences, null for no sharing
+     * @return the results of the query
      */
-    static public void callQuery(Query query, BNetwork network) {
+    static public QueryResults callQuery(Query query, BNetwork network, EvidenceGroup group) {
+        // the probabilities of all the values of the query variables, from single run
+        if (query.isDistribution()) {
+            callDistributionQuery(query, network, group);
+
+            return query.results;
+        }
+
+        // the approximate types report error, that is 0 for the exact shortcuts
+        if (query.type == 5 || query.type == 6) {
+            query.results.error = 0;
+        }
+
         // if dos not exists evidences
         if (query.evidencesVariables.length == 0) {
             callQueryWithoutEvidences(query, network);
-            printResult(query.results);
+
+            return query.results;
         }
 
         // check if the probability in the CPT
@@ -85,22 +174,21 @@ public class Algorithms {
 
         if (inCPT) {
             int index = query.queryValue;
-            int jump = 1;
+            int jump = network.variablesLengths[query.queryVariable];
 
             for (int parent : parents) {
-                jump *= network.variablesLengths[parent];
                 int j = 0;
                 while (parent != query.evidencesVariables[j]) {
                     j++;
                 }
 
                 index += query.evidencesValues[j] * jump;
+                jump *= network.variablesLengths[parent];
             }
 
             query.results.probability = network.CPTs[query.queryVariable][index];
-            printResult(query.results);
 
-            return;
+            return query.results;
         }
 
         // call query type
@@ -109,14 +197,53 @@ public class Algorithms {
                 callQuery1(query, network);
                 break;
             case 2:
-                callQuery2(query, network);
+                callQuery2(query, network, group);
                 break;
             case 3:
-                callQuery3(query, network);
+                callQuery3(query, network, group);
+                break;
+            case 4:
+                callQuery4(query, network);
+                break;
+            case 5:
+                callQuery5(query, network);
+                break;
+            case 6:
+                callQuery6(query, network);
+                break;
+            case 7:
+                callQuery7(query, network);
                 break;
         }
 
-        printResult(query.results);
+        return query.results;
+    }
+
+    /**
+     * Distribution query - the probabilities of all the values of the query variables of any value, from single run.
+     * Single query variable runs by its type (types 1, 4 and 7 compute the distribution of the variable anyway),
+     * joint queries and the sampling types run by Variable Elimination (by the order of type 2, min-weight elsewhere).
+     *
+     * @param query the query
+     * @param network the network
+     * @param group the group of the queries of the same evidences, null for no sharing
+     */
+    static private void callDistributionQuery(Query query, BNetwork network, EvidenceGroup group) {
+        boolean single = query.queryVariables.length == 1;
+
+        if (single && query.type == 1) {
+            double[] probabilities = new double[network.variablesLengths[query.queryVariable]];
+            new Enumeration(network, query, getHidden(query, network)).run(probabilities, query.results);
+            calcDistribution(query, network, new int[]{query.queryVariable}, probabilities);
+        } else if (single && query.type == 4) {
+            query.results.probabilities = network.getJunctionTree().distribution(query);
+        } else if (single && query.type == 7) {
+            query.results.probabilities = network.getBeliefPropagation().distribution(query);
+        } else if (query.type == 2) {
+            callQuery2(query, network, group);
+        } else {
+            callQuery3(query, network, group);
+        }
     }
 
     /**
@@ -160,53 +287,8 @@ public class Algorithms {
         double[] probabilities = new double[network.variablesLengths[query.queryVariable]];
         Arrays.fill(probabilities, 0.0f);
 
-        int[] hidden = getHidden(query, network);
-
-        // calc
-        for (int probabilityIndex = 0; probabilityIndex < probabilities.length; probabilityIndex++) {
-            int[] values = new int[network.variableClasses.length];
-            Arrays.fill(values, 0);
-
-            values[query.queryVariable] = probabilityIndex;
-            for (int i = 0; i < query.evidencesVariables.length; i++) {
-                values[query.evidencesVariables[i]] = query.evidencesValues[i];
-            }
-
-            // get single probability
-            int k = hidden.length;
-            while (k != -1) {
-                // get probability of one value of hidden variables
-                double subProbability = 1;
-                for (int i = 0; i < network.variableClasses.length; i++) {
-                    int cptIndex = values[i];
-                    int jump = network.variablesLengths[i];
-
-                    for (int j = 0; j < network.parents[i].length; j++) {
-                        int parentKey = network.parents[i][j];
-                        cptIndex += values[parentKey] * jump;
-                        jump *= network.variablesLengths[parentKey];
-                    }
-
-                    query.results.multiplies += (i == 0) ? 0 : 1; // the first one is 1
-                    subProbability *= network.CPTs[i][cptIndex];
-                }
-
-                query.results.additions += (probabilities[probabilityIndex] == 0) ? 0 : 1; // the first one is 0
-                probabilities[probabilityIndex] += subProbability;
-
-                // move to the next values
-                k--;
-                while (k >= 0 && values[hidden[k]] == network.variablesLengths[hidden[k]] - 1) {
-                    values[hidden[k]] = 0;
-                    k--;
-                }
-
-                if (k != -1) {
-                    values[hidden[k]]++;
-                    k = hidden.length;
-                }
-            }
-        }
+        // calc - enumerate all the variables, by the order of the hidden variables
+        new Enumeration(network, query, getHidden(query, network)).run(probabilities, query.results);
 
         // result
         calcProbability(query, probabilities);
@@ -217,58 +299,81 @@ public class Algorithms {
      *
      * @param query the query
      * @param network the network
+     * @param group the group of the queries of the same evidences, null for no sharing
      */
-    static private void callQuery2(Query query, BNetwork network){
-        callBasedVariableElimination(query, network, (hiddenVariables, factors) -> 0);
+    static private void callQuery2(Query query, BNetwork network, EvidenceGroup group){
+        callBasedVariableElimination(query, network, (hiddenVariables, hiddenLength, factors, factorsLength) -> 0, group);
     }
 
     /**
      * This query using Variable Elimination
-     * Min-fill: Choose vertices to minimize the size of the factor that will be added to the graph.
+     * Min-weight: Choose vertices to minimize the size of the factor that will be added to the graph,
+     * ties by min-fill (the fewest edges added to the graph).
      *
      * @param query the query
      * @param network the network
+     * @param group the group of the queries of the same evidences, null for no sharing
      */
-    static private void callQuery3(Query query, BNetwork network) {
-        callBasedVariableElimination(query, network, (hiddenVariables, factors) -> {
-
-            int minFactorCreatedLength = -1;
-            int chooseIndex = -1;
-
-            boolean[] factorVariables = new boolean[network.variableClasses.length];
-
-            for (int i = 0; i < hiddenVariables.size(); i++) {
-                int variable = hiddenVariables.get(i);
-
-                Arrays.fill(factorVariables, false);
-
-                for (Factor factor : factors) {
-                    if (factor.variableExists(variable)) {
-                        int[] variables = factor.variables;
-                        for (int j : variables) {
-                            factorVariables[j] = true;
-                        }
-                    }
-                }
+    static private void callQuery3(Query query, BNetwork network, EvidenceGroup group) {
+        callBasedVariableElimination(query, network, new EliminationOrder(network, EliminationOrder.Heuristic.MIN_WEIGHT), group);
+    }
 
-                factorVariables[variable] = false;
+    /**
+     * This query using the Junction Tree of the network.
+     * The tree compiled once per network, so only the evidences absorption and the calibration are per query.
+     *
+     * @param query the query
+     * @param network the network
+     */
+    static private void callQuery4(Query query, BNetwork network) {
+        JunctionTree junctionTree = network.getJunctionTree();
+        junctionTree.callQuery(query);
+
+        // the largest factor is the table of the largest clique
+        if (query.results.profile != null) {
+            for (int cliqueLength : junctionTree.cliquesLengths) {
+                query.results.profile.largestFactor = Math.max(query.results.profile.largestFactor, cliqueLength);
+            }
+        }
+    }
 
-                int factorCreatedLength = 1;
+    /**
+     * This query using likelihood weighting (approximate)
+     *
+     * @param query the query
+     * @param network the network
+     */
+    static private void callQuery5(Query query, BNetwork network) {
+        new LikelihoodWeighting(network, query).run();
+    }
 
-                for (int j = 0; j < factorVariables.length; j++) {
-                    if (factorVariables[i]) {
-                        factorCreatedLength *= network.variablesLengths[j];
-                    }
-                }
+    /**
+     * This query using Gibbs sampling (approximate).
+     * Networks with zero probabilities run by likelihood weighting - the chain can be stuck in part of the
+     * assignments, and impossible evidences give NaN.
+     *
+     * @param query the query
+     * @param network the network
+     */
+    static private void callQuery6(Query query, BNetwork network) {
+        GibbsSampling gibbsSampling = new GibbsSampling(network, query);
 
-                if (minFactorCreatedLength == -1 || minFactorCreatedLength > factorCreatedLength) {
-                    chooseIndex = i;
-                    minFactorCreatedLength = factorCreatedLength;
-                }
-            }
+        if (gibbsSampling.isErgodic()) {
+            gibbsSampling.run();
+        } else {
+            new LikelihoodWeighting(network, query).run();
+        }
+    }
 
-            return chooseIndex;
-        });
+    /**
+     * This query using loopy belief propagation (approximate).
+     * The factor graph compiled once per network, so only the messages are per query.
+     *
+     * @param query the query
+     * @param network the network
+     */
+    static private void callQuery7(Query query, BNetwork network) {
+        network.getBeliefPropagation().callQuery(query);
     }
 
     // factor operations
@@ -280,7 +385,25 @@ public class Algorithms {
      * @return the union of the groups
      */
     static public int[] unionGroups(int[] groupA, int[] groupB) {
-        int[] union = new int[groupA.length + groupB.length];
+        return unionGroups(groupA, groupB, null);
+    }
+
+    /**
+     * union groups
+     *
+     * @param groupA group A
+     * @param groupB group B
+     * @param arena the arena of the union buffer, null for new buffer
+     * @return the union of the groups
+     */
+    static int[] unionGroups(int[] groupA, int[] groupB, FactorArena arena) {
+        // count the union
+        int length = groupA.length;
+        for (int k : groupB) {
+            length += contains(groupA, k) ? 0 : 1;
+        }
+
+        int[] union = (arena == null) ? new int[length] : arena.takeInts(length);
 
         int index = 0;
         while (index < groupA.length) {
@@ -289,25 +412,59 @@ public class Algorithms {
         }
 
         for (int k : groupB) {
-            boolean inA = false;
-            for (int j = 0; j < groupA.length && !inA; j++) {
-                inA = k == groupA[j];
-            }
-
-            if (!inA) {
+            if (!contains(groupA, k)) {
                 union[index] = k;
                 index++;
             }
         }
 
-        int[] fixedUnion = new int[index];
-        System.arraycopy(union, 0, fixedUnion, 0, fixedUnion.length);
+        return union;
+    }
 
-        return fixedUnion;
+    /**
+     * check if group contains variable
+     *
+     * @param group the group
+     * @param variable the variable
+     * @return True if the variable in the group, False elsewhere
+     */
+    static private boolean contains(int[] group, int variable) {
+        for (int j : group) {
+            if (j == variable) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Join two factors
+     * get the jumps (strides) of the factor variables in the indexes of the factor
+     *
+     * @param network the network of the factor
+     * @param factor the factor
+     * @param variables the variables to get their jumps
+     * @param arena the arena of the jumps buffer, null for new buffer
+     * @return the jump of every variable in the factor, 0 for variable not in the factor
+     */
+    static int[] factorJumps(BNetwork network, Factor factor, int[] variables, FactorArena arena) {
+        int[] jumps = (arena == null) ? new int[variables.length] : arena.takeInts(variables.length);
+
+        int jump = 1;
+        for (int factorVariable : factor.variables) {
+            int k = 0;
+            while (variables[k] != factorVariable) {
+                k++;
+            }
+
+            jumps[k] = jump;
+            jump *= network.variablesLengths[factorVariable];
+        }
+
+        return jumps;
+    }
+
+    /**
+     * Join two factors.
      *
      * @param network the network of the factors
      * @param query the query of the factors
@@ -316,84 +473,116 @@ public class Algorithms {
      * @return joined factor
      */
     static public Factor join(BNetwork network, Query query, Factor factorA, Factor factorB) {
+        return join(network, query, factorA, factorB, null);
+    }
+
+    /**
+     * Join two factors.
+     * The factors indexes updated incrementally by the jumps of the changed variables,
+     * so every probability of the joined factor costs O(1) amortized.
+     *
+     * @param network the network of the factors
+     * @param query the query of the factors
+     * @param factorA factor A
+     * @param factorB factor B
+     * @param arena the arena of the joined factor and the work buffers, null for new buffers
+     * @return joined factor
+     */
+    static Factor join(BNetwork network, Query query, Factor factorA, Factor factorB, FactorArena arena) {
         // get the factor variables
-        int[] factorVariables = unionGroups(factorA.variables, factorB.variables);
+        int[] factorVariables = unionGroups(factorA.variables, factorB.variables, arena);
 
-        // get the probabilities length
+        // get the probabilities length and the variables lengths
+        int[] lengths = (arena == null) ? new int[factorVariables.length] : arena.takeInts(factorVariables.length);
         int factorProbabilitiesLength = 1;
-        for (int factorVariable : factorVariables) {
-            factorProbabilitiesLength *= network.variablesLengths[factorVariable];
+        for (int i = 0; i < factorVariables.length; i++) {
+            lengths[i] = network.variablesLengths[factorVariables[i]];
+            factorProbabilitiesLength *= lengths[i];
         }
 
-        // get the probabilities
-        double[] factorProbabilities = new double[factorProbabilitiesLength];
-
-        int[] values = new int[factorVariables.length];
-        Arrays.fill(values, 0);
-
-        int[] indexesA = new int[factorA.variables.length];
-        for (int i = 0; i < indexesA.length; i++) {
-            int j = 0;
-            while (factorVariables[j] != factorA.variables[i]) {
-                j++;
-            }
+        // the jumps of the variables in A and in B
+        int[] jumpsA = factorJumps(network, factorA, factorVariables, arena);
+        int[] jumpsB = factorJumps(network, factorB, factorVariables, arena);
 
-            indexesA[i] = j;
+        // get the probabilities
+        double[] factorProbabilities = (arena == null) ? new double[factorProbabilitiesLength] : arena.takeDoubles(factorProbabilitiesLength);
+        double[] probabilitiesA = factorA.probabilities;
+        double[] probabilitiesB = factorB.probabilities;
+
+        if (ParallelFactors.isParallel(factorProbabilitiesLength)) {
+            ParallelFactors.run(factorProbabilitiesLength, query.results, (from, to, counters) ->
+                    joinRange(probabilitiesA, probabilitiesB, factorProbabilities, lengths, jumpsA, jumpsB, from, to, counters, arena != null));
+        } else {
+            joinRange(probabilitiesA, probabilitiesB, factorProbabilities, lengths, jumpsA, jumpsB, 0, factorProbabilitiesLength, query.results, arena != null);
         }
 
-        int[] indexesB = new int[factorB.variables.length];
-        for (int i = 0; i < indexesB.length; i++) {
-            int j = 0;
-            while (factorVariables[j] != factorB.variables[i]) {
-                j++;
-            }
-
-            indexesB[i] = j;
+        // create the factor
+        if (arena == null) {
+            return new Factor(factorVariables, factorProbabilities);
         }
 
-        for (int probabilityIndex = 0; probabilityIndex < factorProbabilitiesLength; probabilityIndex++) {
-            // add new probability to the new factor
-            int cptIndexA = 0;
-            int jumpA = 1;
-            int cptIndexB = 0;
-            int jumpB = 1;
+        arena.release(lengths);
+        arena.release(jumpsA);
+        arena.release(jumpsB);
 
-            for (int i = 0; i < factorA.variables.length; i++) {
-                int variable = factorA.variables[i];
-
-                cptIndexA += values[indexesA[i]] * jumpA;
-
-                jumpA *= network.variablesLengths[variable];
-            }
-
-            for (int i = 0; i < factorB.variables.length; i++) {
-                int variable = factorB.variables[i];
-
-                cptIndexB += values[indexesB[i]] * jumpB;
-
-                jumpB *= network.variablesLengths[variable];
-            }
+        return arena.factor(factorVariables, factorProbabilities);
+    }
 
-            double probabilityA = factorA.probabilities[cptIndexA];
-            double probabilityB = factorB.probabilities[cptIndexB];
+    /**
+     * join range of the probabilities of the joined factor
+     *
+     * @param probabilitiesA the probabilities of factor A
+     * @param probabilitiesB the probabilities of factor B
+     * @param factorProbabilities the probabilities of the joined factor
+     * @param lengths the lengths of the joined factor variables
+     * @param jumpsA the jumps of the joined factor variables in factor A
+     * @param jumpsB the jumps of the joined factor variables in factor B
+     * @param from the first index of the range
+     * @param to the end index of the range (exclusive)
+     * @param counters counters of the operations
+     * @param useArena take the work buffers from the arena of the current thread
+     */
+    static private void joinRange(double[] probabilitiesA, double[] probabilitiesB, double[] factorProbabilities,
+                                  int[] lengths, int[] jumpsA, int[] jumpsB, int from, int to,
+                                  QueryResults counters, boolean useArena) {
+        FactorArena arena = useArena ? FactorArena.get() : null;
+        int[] values = (arena == null) ? new int[lengths.length] : arena.takeInts(lengths.length);
+
+        // the values and the indexes of the first probability of the range
+        int cptIndexA = 0;
+        int cptIndexB = 0;
+        int rest = from;
+        for (int k = 0; k < values.length; k++) {
+            values[k] = rest % lengths[k];
+            rest /= lengths[k];
+            cptIndexA += values[k] * jumpsA[k];
+            cptIndexB += values[k] * jumpsB[k];
+        }
 
-            factorProbabilities[probabilityIndex] = probabilityA * probabilityB;
-            query.results.multiplies++;
+        for (int probabilityIndex = from; probabilityIndex < to; probabilityIndex++) {
+            factorProbabilities[probabilityIndex] = probabilitiesA[cptIndexA] * probabilitiesB[cptIndexB];
 
             // move to next value
             int k = 0;
-            while (k < values.length && values[k] == network.variablesLengths[factorVariables[k]] - 1) {
+            while (k < values.length && values[k] == lengths[k] - 1) {
+                cptIndexA -= values[k] * jumpsA[k];
+                cptIndexB -= values[k] * jumpsB[k];
                 values[k] = 0;
                 k++;
             }
 
             if (k < values.length) {
                 values[k]++;
+                cptIndexA += jumpsA[k];
+                cptIndexB += jumpsB[k];
             }
         }
 
-        // create the factor
-        return new Factor(factorVariables, factorProbabilities);
+        counters.multiplies += to - from;
+
+        if (arena != null) {
+            arena.release(values);
+        }
     }
 
     /**
@@ -431,132 +620,314 @@ public class Algorithms {
         }
 
         // get the probabilities
-        double[] probabilities = new double[variablesBeforeLength * variablesAfterLength];
-
-        int probabilityNewIndex = 0;
-        for (int k = 0; k < variablesAfterLength; k++) {
-            for (int j = 0; j < variablesBeforeLength; j++) {
-                int probabilityIndex = k * variablesBeforeLength * variableLength + j;
+        int probabilitiesLength = variablesBeforeLength * variablesAfterLength;
+        double[] probabilities = new double[probabilitiesLength];
+        int before = variablesBeforeLength;
+
+        if (ParallelFactors.isParallel(factor.probabilities.length)) {
+            ParallelFactors.run(probabilitiesLength, query.results, (from, to, counters) ->
+                    eliminateRange(factor.probabilities, probabilities, before, variableLength, from, to, counters));
+        } else {
+            eliminateRange(factor.probabilities, probabilities, before, variableLength, 0, probabilitiesLength, query.results);
+        }
 
-                double probability = factor.probabilities[probabilityIndex];
-                for (int i = 1; i < variableLength; i++) {
-                    probability += factor.probabilities[probabilityIndex + i * variablesBeforeLength];
-                    query.results.additions++;
-                }
+        return new Factor(variables, probabilities);
+    }
 
-                probabilities[probabilityNewIndex] = probability;
-                probabilityNewIndex++;
+    /**
+     * eliminate range of the probabilities of the eliminated factor
+     *
+     * @param factorProbabilities the probabilities of the factor
+     * @param probabilities the probabilities of the eliminated factor
+     * @param variablesBeforeLength the length of the variables before the eliminated variable
+     * @param variableLength the length of the eliminated variable
+     * @param from the first index of the range
+     * @param to the end index of the range (exclusive)
+     * @param counters counters of the operations
+     */
+    static private void eliminateRange(double[] factorProbabilities, double[] probabilities, int variablesBeforeLength,
+                                       int variableLength, int from, int to, QueryResults counters) {
+        for (int probabilityNewIndex = from; probabilityNewIndex < to; probabilityNewIndex++) {
+            int j = probabilityNewIndex % variablesBeforeLength;
+            int k = probabilityNewIndex / variablesBeforeLength;
+            int probabilityIndex = k * variablesBeforeLength * variableLength + j;
+
+            double probability = factorProbabilities[probabilityIndex];
+            for (int i = 1; i < variableLength; i++) {
+                probability += factorProbabilities[probabilityIndex + i * variablesBeforeLength];
             }
+
+            probabilities[probabilityNewIndex] = probability;
         }
 
-        return new Factor(variables, probabilities);
+        counters.additions += (to - from) * (variableLength - 1);
     }
 
-    // Variable Elimination
+    /**
+     * Join factors and eliminate variable from the joined factor, in single pass.
+     * Every probability of the result sums the products of the factors over the values of the variable,
+     * so the joined factor (with the eliminated variable) is never created.
+     * The products and the sums are in the same order of joining the factors one by one and then eliminating,
+     * so the probabilities are the same.
+     *
+     * @param network the network of the factors
+     * @param query the query of the factors
+     * @param factors the factors to join, by the join order, all of them with the variable
+     * @param variable the variable to eliminate
+     * @param compatibleCounts count the operations like joining the factors one by one and then eliminating,
+     *                         false for counting the operations done here
+     * @return the eliminated factor
+     */
+    static public Factor sumProduct(BNetwork network, Query query, List<Factor> factors, int variable, boolean compatibleCounts) {
+        return sumProduct(network, query, factors.toArray(new Factor[0]), factors.size(), variable, compatibleCounts, null);
+    }
 
     /**
-     * remove all the hidden variables that not ancestor of the query variable of evidence variable
+     * Join factors and eliminate variable from the joined factor, in single pass.
      *
-     * @param network the origin network
-     * @param net the needed variables for variable elimination
-     * @param hiddenVariables hidden variables
+     * @param network the network of the factors
+     * @param query the query of the factors
+     * @param factors the factors to join, by the join order, all of them with the variable
+     * @param factorsLength count of the factors in factors
+     * @param variable the variable to eliminate
+     * @param compatibleCounts count the operations like joining the factors one by one and then eliminating,
+     *                         false for counting the operations done here
+     * @param arena the arena of the eliminated factor and the work buffers, null for new buffers
+     * @return the eliminated factor
      */
-    static private void variableEliminationRemoveLeavesFactors(BNetwork network, List<Integer> net, List<Integer> hiddenVariables) {
-        int hiddenIndex = 0;
-        while (hiddenIndex < hiddenVariables.size()) {
-            Integer hidden = hiddenVariables.get(hiddenIndex);
-
-            boolean isLeave = true;
-
-            for (int i = 0; i < net.size() && isLeave; i++) {
-                int node = net.get(i);
-                if (node != hidden) {
-                    for (int j = 0; j < network.parents[node].length && isLeave; j++) {
-                        isLeave = (network.parents[node][j] != hidden);
+    static Factor sumProduct(BNetwork network, Query query, Factor[] factors, int factorsLength, int variable,
+                             boolean compatibleCounts, FactorArena arena) {
+        // the variables of the joined factor, by the join order
+        int[] joinedVariables = factors[0].variables;
+        long joinMultiplies = 0;
+        for (int i = 1; i < factorsLength; i++) {
+            int[] union = unionGroups(joinedVariables, factors[i].variables, arena);
+            if (i > 1 && arena != null) {
+                arena.release(joinedVariables);
+            }
+            joinedVariables = union;
+
+            long joinedLength = 1;
+            for (int joinedVariable : joinedVariables) {
+                joinedLength *= network.variablesLengths[joinedVariable];
+            }
+            joinMultiplies += joinedLength;
+        }
+
+        // the variables of the result - the joined variables without the eliminated variable
+        int resultLength = joinedVariables.length - 1;
+        int[] factorVariables = (arena == null) ? new int[resultLength] : arena.takeInts(resultLength);
+        int[] lengths = (arena == null) ? new int[resultLength] : arena.takeInts(resultLength);
+        int factorProbabilitiesLength = 1;
+        int k = 0;
+        for (int joinedVariable : joinedVariables) {
+            if (joinedVariable != variable) {
+                factorVariables[k] = joinedVariable;
+                lengths[k] = network.variablesLengths[joinedVariable];
+                factorProbabilitiesLength *= lengths[k];
+                k++;
+            }
+        }
+
+        int variableLength = network.variablesLengths[variable];
+
+        // the jumps of the result variables in every factor (flattened by factor), and of the eliminated variable
+        int[] jumps = (arena == null) ? new int[factorsLength * resultLength] : arena.takeInts(factorsLength * resultLength);
+        int[] variableJumps = (arena == null) ? new int[factorsLength] : arena.takeInts(factorsLength);
+        for (int f = 0; f < factorsLength; f++) {
+            int jump = 1;
+            for (int factorVariable : factors[f].variables) {
+                if (factorVariable == variable) {
+                    variableJumps[f] = jump;
+                } else {
+                    k = 0;
+                    while (factorVariables[k] != factorVariable) {
+                        k++;
                     }
+                    jumps[f * resultLength + k] = jump;
                 }
+
+                jump *= network.variablesLengths[factorVariable];
             }
+        }
+
+        if (factorsLength > 1 && arena != null) {
+            arena.release(joinedVariables);
+        }
+
+        // get the probabilities
+        double[] factorProbabilities = (arena == null) ? new double[factorProbabilitiesLength] : arena.takeDoubles(factorProbabilitiesLength);
+        if (ParallelFactors.isParallel(factorProbabilitiesLength * variableLength)) {
+            ParallelFactors.run(factorProbabilitiesLength, query.results, (from, to, counters) ->
+                    sumProductRange(factors, factorsLength, factorProbabilities, lengths, jumps, variableJumps,
+                            variableLength, from, to, counters, arena != null));
+        } else {
+            sumProductRange(factors, factorsLength, factorProbabilities, lengths, jumps, variableJumps,
+                    variableLength, 0, factorProbabilitiesLength, query.results, arena != null);
+        }
+
+        // replace the multiplies done here by the multiplies of joining the factors one by one
+        if (compatibleCounts) {
+            query.results.multiplies += (int) joinMultiplies - factorProbabilitiesLength * variableLength * (factorsLength - 1);
+        }
+
+        if (arena == null) {
+            return new Factor(factorVariables, factorProbabilities);
+        }
 
-            if (isLeave) {
-                hiddenVariables.remove(hidden);
-                net.remove(hidden);
+        arena.release(lengths);
+        arena.release(jumps);
+        arena.release(variableJumps);
 
-                hiddenIndex = 0;
-            } else {
-                hiddenIndex++;
+        return arena.factor(factorVariables, factorProbabilities);
+    }
+
+    /**
+     * join and eliminate range of the probabilities of the eliminated factor
+     *
+     * @param factors the factors to join
+     * @param factorsLength count of the factors in factors
+     * @param factorProbabilities the probabilities of the eliminated factor
+     * @param lengths the lengths of the eliminated factor variables
+     * @param jumps the jumps of the eliminated factor variables in every factor (flattened by factor)
+     * @param variableJumps the jumps of the eliminated variable in every factor
+     * @param variableLength the length of the eliminated variable
+     * @param from the first index of the range
+     * @param to the end index of the range (exclusive)
+     * @param counters counters of the operations
+     * @param useArena take the work buffers from the arena of the current thread
+     */
+    static private void sumProductRange(Factor[] factors, int factorsLength, double[] factorProbabilities, int[] lengths,
+                                        int[] jumps, int[] variableJumps, int variableLength, int from, int to,
+                                        QueryResults counters, boolean useArena) {
+        FactorArena arena = useArena ? FactorArena.get() : null;
+        int resultLength = lengths.length;
+        int[] values = (arena == null) ? new int[resultLength] : arena.takeInts(resultLength);
+        int[] indexes = (arena == null) ? new int[factorsLength] : arena.takeInts(factorsLength);
+        double[] firstProbabilities = factors[0].probabilities;
+
+        // the values and the indexes of the first probability of the range
+        int rest = from;
+        for (int k = 0; k < resultLength; k++) {
+            values[k] = rest % lengths[k];
+            rest /= lengths[k];
+            for (int f = 0; f < factorsLength; f++) {
+                indexes[f] += values[k] * jumps[f * resultLength + k];
             }
         }
+
+        for (int probabilityIndex = from; probabilityIndex < to; probabilityIndex++) {
+            double probability = 0;
+
+            for (int value = 0; value < variableLength; value++) {
+                double product = firstProbabilities[indexes[0] + value * variableJumps[0]];
+                for (int f = 1; f < factorsLength; f++) {
+                    product *= factors[f].probabilities[indexes[f] + value * variableJumps[f]];
+                }
+
+                probability = (value == 0) ? product : probability + product;
+            }
+
+            factorProbabilities[probabilityIndex] = probability;
+
+            // move to next value
+            int k = 0;
+            while (k < resultLength && values[k] == lengths[k] - 1) {
+                for (int f = 0; f < factorsLength; f++) {
+                    indexes[f] -= values[k] * jumps[f * resultLength + k];
+                }
+                values[k] = 0;
+                k++;
+            }
+
+            if (k < resultLength) {
+                values[k]++;
+                for (int f = 0; f < factorsLength; f++) {
+                    indexes[f] += jumps[f * resultLength + k];
+                }
+            }
+        }
+
+        counters.multiplies += (to - from) * variableLength * (factorsLength - 1);
+        counters.additions += (to - from) * (variableLength - 1);
+
+        if (arena != null) {
+            arena.release(values);
+            arena.release(indexes);
+        }
     }
 
+    // Variable Elimination
+
     /**
      * create factors list from list of variables
      *
      * @param query the query
      * @param network the origin network
      * @param net the needed variables for variable elimination
-     * @return the factors list
+     * @param netLength count of the variables in net
+     * @param factors array for the factors
+     * @param arena the arena of the factors and the work buffers
+     * @return count of the factors
      */
-    static private List<Factor> variableEliminationCreateFactors(Query query, BNetwork network, List<Integer> net) {
+    static private int variableEliminationCreateFactors(Query query, BNetwork network, int[] net, int netLength,
+                                                        Factor[] factors, FactorArena arena) {
         // create factors
-        List<Factor> factors = new LinkedList<>();
+        int factorsLength = 0;
+
+        for (int netIndex = 0; netIndex < netLength; netIndex++) {
+            int factorVariable = net[netIndex];
 
-        for (int factorVariable : net) {
             // init
             int[] parents = network.parents[factorVariable];
 
             // load the factor variables
-            List<Integer> factorVariablesList = new ArrayList<>(1 + parents.length);
+            int[] originVariables = arena.takeInts(1 + parents.length);
+            originVariables[0] = factorVariable;
+            System.arraycopy(parents, 0, originVariables, 1, parents.length);
 
-            List<Integer> originVariables = new ArrayList<>(1 + parents.length);
-            originVariables.add(factorVariable);
-            originVariables.addAll(Arrays.stream(parents).boxed().collect(Collectors.toList()));
+            int[] values = arena.takeInts(originVariables.length);
+            int[] changeableVariablesIndexes = arena.takeInts(originVariables.length);
+            int changeableLength = 0;
 
-            int[] values = new int[originVariables.size()];
-            Arrays.fill(values, 0);
-            List<Integer> changeableVariablesIndexes = new LinkedList<>();
-
-            for (int i = 0; i < originVariables.size(); i++) {
-                Integer variable = originVariables.get(i);
+            for (int i = 0; i < originVariables.length; i++) {
+                int variable = originVariables[i];
                 boolean isEvidence = false;
 
                 for (int j = 0; j < query.evidencesVariables.length && !isEvidence; j++) {
-                    int evidencesVariable = query.evidencesVariables[j];
-
-                    if (variable.equals(evidencesVariable)) {
+                    if (variable == query.evidencesVariables[j]) {
                         isEvidence = true;
                         values[i] = query.evidencesValues[j];
                     }
                 }
 
                 if (!isEvidence) {
-                    factorVariablesList.add(variable);
-                    changeableVariablesIndexes.add(i);
+                    changeableVariablesIndexes[changeableLength] = i;
+                    changeableLength++;
                 }
             }
 
             // only factors with variables (factors with more than one probability).
-            if (factorVariablesList.size() > 0) {
-                // factorVariablesList to factorVariables and get probabilities length
-                int[] factorVariables = new int[factorVariablesList.size()];
+            if (changeableLength > 0) {
+                // the factor variables and the probabilities length
+                int[] factorVariables = arena.takeInts(changeableLength);
                 int probabilitiesLength = 1;
 
-                for (int i = 0; i < factorVariables.length; i++) {
-                    factorVariables[i] = factorVariablesList.get(i);
+                for (int i = 0; i < changeableLength; i++) {
+                    factorVariables[i] = originVariables[changeableVariablesIndexes[i]];
                     probabilitiesLength *= network.variablesLengths[factorVariables[i]];
                 }
 
                 // load the factor probabilities
-                double[] factorProbabilities = new double[probabilitiesLength];
-
-                Collections.reverse(changeableVariablesIndexes);
+                double[] factorProbabilities = arena.takeDoubles(probabilitiesLength);
 
                 for (int probabilityIndex = 0; probabilityIndex < probabilitiesLength; probabilityIndex++) {
                     // add new factor probability
                     int cptIndex = values[0];
                     int jump = 1;
 
-                    for (int j = 1; j < originVariables.size(); j++) {
-                        int originVariable = originVariables.get(j - 1);
+                    for (int j = 1; j < originVariables.length; j++) {
+                        int originVariable = originVariables[j - 1];
 
                         jump *= network.variablesLengths[originVariable];
 
@@ -565,30 +936,118 @@ public class Algorithms {
 
                     factorProbabilities[probabilityIndex] = network.CPTs[factorVariable][cptIndex];
 
-                    // move to next values
-                    int k = changeableVariablesIndexes.size() - 1;
+                    // move to next values (the first changeable variable changes the fastest)
+                    int k = 0;
                     boolean hasNext = true;
-                    while (k >= 0 && hasNext) {
-                        int variableKey = originVariables.get(changeableVariablesIndexes.get(k));
-                        hasNext = values[changeableVariablesIndexes.get(k)] == network.variablesLengths[variableKey] - 1;
+                    while (k < changeableLength && hasNext) {
+                        int variableKey = originVariables[changeableVariablesIndexes[k]];
+                        hasNext = values[changeableVariablesIndexes[k]] == network.variablesLengths[variableKey] - 1;
                         if (hasNext) {
-                            values[changeableVariablesIndexes.get(k)] = 0;
-                            k--;
+                            values[changeableVariablesIndexes[k]] = 0;
+                            k++;
                         }
                     }
 
-                    if (k != -1) {
-                        values[changeableVariablesIndexes.get(k)]++;
+                    if (k != changeableLength) {
+                        values[changeableVariablesIndexes[k]]++;
                     }
                 }
 
                 // add the factor
-                Factor factor = new Factor(factorVariables, factorProbabilities);
-                factors.add(factor);
+                factors[factorsLength] = arena.factor(factorVariables, factorProbabilities);
+                factorsLength++;
             }
+
+            arena.release(originVariables);
+            arena.release(values);
+            arena.release(changeableVariablesIndexes);
         }
 
-        return factors;
+        return factorsLength;
+    }
+
+    /**
+     * create factors list from list of variables, by the reduced factors of the group
+     * (every reduced factor is created once for the group)
+     *
+     * @param query the query
+     * @param network the origin network
+     * @param net the needed variables for variable elimination
+     * @param netLength count of the variables in net
+     * @param factors array for the factors
+     * @param group the group of the queries of the same evidences
+     * @param arena the arena of the work buffers
+     * @return count of the factors
+     */
+    static private int sharedCreateFactors(Query query, BNetwork network, int[] net, int netLength, Factor[] factors,
+                                           EvidenceGroup group, FactorArena arena) {
+        int factorsLength = 0;
+        int[] variable = new int[1];
+        Factor[] created = new Factor[1];
+
+        for (int netIndex = 0; netIndex < netLength; netIndex++) {
+            if (!group.isReduced(net[netIndex])) {
+                variable[0] = net[netIndex];
+                int createdLength = variableEliminationCreateFactors(query, network, variable, 1, created, arena);
+                group.setReducedFactor(net[netIndex], (createdLength == 1) ? created[0] : null);
+            }
+
+            Factor factor = group.getReducedFactor(net[netIndex]);
+            if (factor != null) {
+                factors[factorsLength] = factor;
+                factorsLength++;
+            }
+        }
+
+        return factorsLength;
+    }
+
+    /**
+     * Join factors and eliminate variable, or take the eliminated factor of the same step from the group.
+     * The counts of the step are added to the query in both cases.
+     *
+     * @param network the network of the factors
+     * @param query the query of the factors
+     * @param factors the factors to join, by the join order, all of them with the variable
+     * @param factorsLength count of the factors in factors
+     * @param variable the variable to eliminate
+     * @param group the group of the queries of the same evidences
+     * @param arena the arena of the eliminated factor and the work buffers
+     * @return the eliminated factor (shared)
+     */
+    static private Factor sharedSumProduct(BNetwork network, Query query, Factor[] factors, int factorsLength,
+                                           int variable, EvidenceGroup group, FactorArena arena) {
+        EvidenceGroup.Step step = group.getStep(variable, factors, factorsLength);
+        if (step != null) {
+            query.results.additions += step.additions;
+            query.results.multiplies += step.multiplies;
+
+            return step.factor;
+        }
+
+        int additions = query.results.additions;
+        int multiplies = query.results.multiplies;
+        Factor factor = sumProduct(network, query, factors, factorsLength, variable, true, arena);
+        group.putStep(variable, factors, factorsLength, factor,
+                query.results.additions - additions, query.results.multiplies - multiplies);
+
+        return factor;
+    }
+
+    /**
+     * compare factors for the join order - by the probabilities length and then by the name of the first variable
+     *
+     * @param network the network
+     * @param factorA factor A
+     * @param factorB factor B
+     * @return negative if factor A joined before factor B, positive if factor B joined before factor A
+     */
+    static private int compareFactorsToJoin(BNetwork network, Factor factorA, Factor factorB) {
+        if (factorA.probabilities.length != factorB.probabilities.length) {
+            return (factorA.probabilities.length > factorB.probabilities.length) ? 1 : -1;
+        }
+
+        return network.variablesNamesRanks[factorA.variables[0]] - network.variablesNamesRanks[factorB.variables[0]];
     }
 
     /**
@@ -597,85 +1056,180 @@ public class Algorithms {
      * @param query the query
      * @param network the network
      * @param hiddenChooser hiddenChooser for choosing the hidden to eliminate in the loop
+     * @param group the group of the queries of the same evidences (shares the factors and the elimination steps),
+     *              null for no sharing
      */
-    static private void callBasedVariableElimination(Query query, BNetwork network, HiddenChooser hiddenChooser) {
-        // init
-        List<Integer> hiddenVariables = Arrays.stream(getHidden(query, network)).boxed().collect(Collectors.toList());
+    static private void callBasedVariableElimination(Query query, BNetwork network, HiddenChooser hiddenChooser,
+                                                     EvidenceGroup group) {
+        FactorArena arena = FactorArena.get();
+
+        // init - the requisite variables, the other variables are barren or d-separated from the query variable
+        int[] requisite = Relevance.requisite(network, query, arena);
+        for (int evidence : query.evidencesVariables) {
+            requisite[evidence] += 2;
+        }
+
+        // the variables that need for the query - the hidden variables, the query variables and the evidences
+        int[] hiddenVariables = arena.takeInts(network.variableClasses.length);
+        int hiddenLength = 0;
+        int[] net = arena.takeInts(network.variableClasses.length);
+        int netLength = 0;
+
+        for (int variable = 0; variable < requisite.length; variable++) {
+            if (requisite[variable] == 1 && !query.isQueryVariable(variable)) {
+                hiddenVariables[hiddenLength] = variable;
+                hiddenLength++;
+                net[netLength] = variable;
+                netLength++;
+            }
+        }
 
-        List<Integer> net = new ArrayList<>(hiddenVariables); // the variables that need for the query
-        net.add(query.queryVariable);
-        net.addAll(Arrays.stream(query.evidencesVariables).boxed().collect(Collectors.toList()));
+        for (int queryVariable : query.queryVariables) {
+            net[netLength] = queryVariable;
+            netLength++;
+        }
 
-        // remove unuseful hidden variables
-        variableEliminationRemoveLeavesFactors(network, net, hiddenVariables);
+        for (int evidence : query.evidencesVariables) {
+            if (requisite[evidence] == 3) {
+                net[netLength] = evidence;
+                netLength++;
+            }
+        }
 
-        // create factors
-        List<Factor> factors = variableEliminationCreateFactors(query, network, net);
+        arena.release(requisite);
+
+        QueryProfile profile = query.results.profile;
+        if (profile != null) {
+            profile.phase(QueryProfile.PRUNE);
+        }
 
-        // ordering the hidden variables
-        hiddenVariables.sort((variableAKey, variableBKey) -> {
-            VariableClass variableClassA = network.variableClasses[variableAKey];
-            VariableClass variableClassB = network.variableClasses[variableBKey];
+        // create factors
+        Factor[] factors = arena.takeFactors(network.variableClasses.length);
+        int factorsLength = (group == null) ? variableEliminationCreateFactors(query, network, net, netLength, factors, arena)
+                : sharedCreateFactors(query, network, net, netLength, factors, group, arena);
+        arena.release(net);
+
+        if (profile != null) {
+            for (int i = 0; i < factorsLength; i++) {
+                profile.factor(factors[i]);
+            }
+            profile.phase(QueryProfile.FACTORS);
+        }
 
-            return variableClassA.getName().compareTo(variableClassB.getName());
-        });
+        // ordering the hidden variables (insertion sort by the names)
+        for (int i = 1; i < hiddenLength; i++) {
+            int variable = hiddenVariables[i];
+            int j = i - 1;
+            while (j >= 0 && network.variablesNamesRanks[hiddenVariables[j]] > network.variablesNamesRanks[variable]) {
+                hiddenVariables[j + 1] = hiddenVariables[j];
+                j--;
+            }
+            hiddenVariables[j + 1] = variable;
+        }
 
         // Variable Elimination
-        while (!hiddenVariables.isEmpty()) {
-            int hiddenIndex = hiddenChooser.choose(hiddenVariables, factors);
-            int hidden = hiddenVariables.get(hiddenIndex);
-            hiddenVariables.remove(hiddenIndex);
+        Factor[] factorsToJoin = arena.takeFactors(network.variableClasses.length);
+
+        while (hiddenLength > 0) {
+            int hiddenIndex = hiddenChooser.choose(hiddenVariables, hiddenLength, factors, factorsLength);
+            int hidden = hiddenVariables[hiddenIndex];
+            System.arraycopy(hiddenVariables, hiddenIndex + 1, hiddenVariables, hiddenIndex, hiddenLength - hiddenIndex - 1);
+            hiddenLength--;
+
+            if (profile != null) {
+                profile.eliminated(hidden);
+            }
 
             // collect factors with the hidden to single factor
-            List<Factor> factorsToJoin = new ArrayList<>(factors.size());
+            int toJoinLength = 0;
             int firstFactorIndex = -1;
-            for (int i = 0; i < factors.size(); i++) {
-                Factor factor = factors.get(i);
+            int keptLength = 0;
+            for (int i = 0; i < factorsLength; i++) {
+                Factor factor = factors[i];
                 if (factor.variableExists(hidden)) {
                     // get the factor index, to return the new factor to the same place
                     if (firstFactorIndex == -1) {
-                        firstFactorIndex = i;
+                        firstFactorIndex = keptLength;
                     }
 
-                    factorsToJoin.add(factor);
-                    factors.remove(i);
-                    i--;
+                    // insert by the join order (stable)
+                    int j = toJoinLength - 1;
+                    while (j >= 0 && compareFactorsToJoin(network, factorsToJoin[j], factor) > 0) {
+                        factorsToJoin[j + 1] = factorsToJoin[j];
+                        j--;
+                    }
+                    factorsToJoin[j + 1] = factor;
+                    toJoinLength++;
+                } else {
+                    factors[keptLength] = factor;
+                    keptLength++;
                 }
             }
+            factorsLength = keptLength;
 
-            if (factorsToJoin.size() > 0) {
-                // ordering the factors to join
-                factorsToJoin.sort((factorA, factorB) -> {
-                    if (factorA.probabilities.length != factorB.probabilities.length) {
-                        return (factorA.probabilities.length > factorB.probabilities.length) ? 1 : -1;
-                    }
-
-                    return network.variableClasses[factorA.variables[0]].getName().compareTo(network.variableClasses[factorB.variables[0]].getName());
-                });
+            if (toJoinLength > 0) {
+                // join the Factors and eliminate the hidden, without creating the joined factor
+                Factor joinedFactor = (group == null) ? sumProduct(network, query, factorsToJoin, toJoinLength, hidden, true, arena)
+                        : sharedSumProduct(network, query, factorsToJoin, toJoinLength, hidden, group, arena);
 
-                // join the Factors
-                Factor joinedFactor = factorsToJoin.get(0);
-                for (int i = 1; i < factorsToJoin.size(); i++) {
-                    joinedFactor = join(network, query, joinedFactor, factorsToJoin.get(i));
+                if (profile != null) {
+                    profile.factor(joinedFactor);
                 }
 
-                // eliminate factor
-                joinedFactor = eliminate(network, query, joinedFactor, hidden);
+                for (int i = 0; i < toJoinLength; i++) {
+                    arena.release(factorsToJoin[i]);
+                    factorsToJoin[i] = null;
+                }
 
                 // add the factor if it has more than probability
                 if (joinedFactor.probabilities.length > 1) {
-                    factors.add(firstFactorIndex, joinedFactor);
+                    System.arraycopy(factors, firstFactorIndex, factors, firstFactorIndex + 1, factorsLength - firstFactorIndex);
+                    factors[firstFactorIndex] = joinedFactor;
+                    factorsLength++;
+                } else {
+                    arena.release(joinedFactor);
                 }
             }
         }
 
+        if (profile != null) {
+            profile.phase(QueryProfile.ELIMINATE);
+        }
+
         // join all the last factors
-        Factor lastFactor = factors.get(0);
-        for (int i = 1; i < factors.size(); i++) {
-            lastFactor = join(network, query, lastFactor, factors.get(i));
+        Factor lastFactor = factors[0];
+        for (int i = 1; i < factorsLength; i++) {
+            Factor joinedFactor = join(network, query, lastFactor, factors[i], arena);
+            if (i > 1) {
+                arena.release(lastFactor);
+            }
+            lastFactor = joinedFactor;
+
+            if (profile != null) {
+                profile.factor(joinedFactor);
+            }
         }
 
         // result
-        calcProbability(query, lastFactor.probabilities);
+        if (query.isDistribution()) {
+            calcDistribution(query, network, lastFactor.variables, lastFactor.probabilities);
+        } else {
+            calcProbability(query, lastFactor.probabilities);
+        }
+
+        if (profile != null) {
+            profile.phase(QueryProfile.JOIN);
+        }
+
+        for (int i = 0; i < factorsLength; i++) {
+            arena.release(factors[i]);
+        }
+        if (factorsLength > 1) {
+            arena.release(lastFactor);
+        }
+
+        arena.release(factors);
+        arena.release(factorsToJoin);
+        arena.release(hiddenVariables);
     }
 }
@@ -1,6 +1,8 @@
 import java.util.*;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -9,6 +11,10 @@ import org.xml.sax.SAXException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * Saving Bayesian Network
@@ -30,6 +36,91 @@ public class BNetwork {
         return builder.parse(file);
     }
 
+    /**
+     * powers of 10 that are exact doubles
+     */
+    private static final double[] EXACT_POWERS_OF_10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * parse CPT table of numbers separated by whitespaces, without creating String for every number.
+     * numbers with up to 15 digits and small exponent are exact (the digits and the power of 10 are exact doubles,
+     * so the single division is rounded like Double.parseDouble), the other numbers parsed by Double.parseDouble.
+     *
+     * @param chars the table text
+     * @param length the length of the text
+     * @return the numbers of the table
+     */
+    static double[] parseTable(char[] chars, int length) {
+        double[] table = new double[16];
+        int tableLength = 0;
+
+        int i = 0;
+        while (i < length) {
+            // skip whitespaces
+            while (i < length && Character.isWhitespace(chars[i])) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+
+            int start = i;
+            while (i < length && !Character.isWhitespace(chars[i])) {
+                i++;
+            }
+
+            if (tableLength == table.length) {
+                table = Arrays.copyOf(table, table.length * 2);
+            }
+            table[tableLength] = parseNumber(chars, start, i);
+            tableLength++;
+        }
+
+        return Arrays.copyOf(table, tableLength);
+    }
+
+    /**
+     * parse single number of CPT table
+     *
+     * @param chars the table text
+     * @param start the start of the number
+     * @param end the end of the number (exclusive)
+     * @return the number
+     */
+    private static double parseNumber(char[] chars, int start, int end) {
+        long digits = 0;
+        int digitsLength = 0;
+        int fractionLength = 0;
+        boolean inFraction = false;
+        boolean hasDigits = false;
+        boolean simple = true;
+
+        for (int i = start; i < end && simple; i++) {
+            char c = chars[i];
+
+            if (c >= '0' && c <= '9') {
+                digits = digits * 10 + (c - '0');
+                digitsLength += (digitsLength == 0 && c == '0') ? 0 : 1;
+                fractionLength += inFraction ? 1 : 0;
+                hasDigits = true;
+            } else if (c == '.' && !inFraction) {
+                inFraction = true;
+            } else {
+                // sign, exponent and the other cases
+                simple = false;
+            }
+        }
+
+        if (simple && hasDigits && digitsLength <= 15 && fractionLength < EXACT_POWERS_OF_10.length) {
+            return digits / EXACT_POWERS_OF_10[fractionLength];
+        }
+
+        return Double.parseDouble(new String(chars, start, end - start));
+    }
+
     // members
     /**
      * array of variables.
@@ -37,6 +128,17 @@ public class BNetwork {
      */
     public VariableClass[] variableClasses = null;
 
+    /**
+     * the rank of every variable in the order of the variables names.
+     * used for ordering variables by names without comparing strings.
+     */
+    public int[] variablesNamesRanks = null;
+
+    /**
+     * hash index of the variables names
+     */
+    private NameIndex variablesIndex = null;
+
     /**
      * array of the lengths (count of the values) of the variables.
      */
@@ -48,6 +150,35 @@ public class BNetwork {
      */
     public int[][] parents = null;
 
+    /**
+     * array for mapping variable to his children.
+     * children[variable key][Ci] when Ci is the child i of the variable, by the keys order
+     */
+    public int[][] children = null;
+
+    /**
+     * the variables keys in topological order, every variable after its parents
+     */
+    public int[] topologicalOrder = null;
+
+    /**
+     * the ancestors of every variable.
+     * ancestors[variable key] is bitset of the keys of the ancestors (without the variable)
+     */
+    public long[][] ancestors = null;
+
+    /**
+     * the descendants of every variable.
+     * descendants[variable key] is bitset of the keys of the descendants (without the variable)
+     */
+    public long[][] descendants = null;
+
+    /**
+     * the moral graph of the network - the parents connected to each other, and the edges without directions.
+     * moralGraph[variable key] is bitset of the keys of the variable neighbors
+     */
+    public long[][] moralGraph = null;
+
     /**
      * array for mapping variable to his CPT.
      * CPTs[variable key][Pi] when Pi is the probability of i.
@@ -56,19 +187,238 @@ public class BNetwork {
     public double[][] CPTs = null;
 
     /**
-     * Create Bayesian Network from xml file
+     * the Junction Tree of the network, compiled on the first use
+     */
+    private JunctionTree junctionTree = null;
+
+    /**
+     * the factor graph of the network for belief propagation, compiled on the first use
+     */
+    private BeliefPropagation beliefPropagation = null;
+
+    /**
+     * Create Bayesian Network from xml file, by streaming the file
      *
      * @param filepath path of the xml file
      */
     public BNetwork(String filepath) throws ParserConfigurationException, IOException, SAXException {
+        this(filepath, false);
+    }
+
+    /**
+     * Create Bayesian Network from xml file
+     *
+     * @param filepath path of the xml file
+     * @param useDOM load the whole xml file to Document, instead of streaming the file
+     */
+    public BNetwork(String filepath, boolean useDOM) throws ParserConfigurationException, IOException, SAXException {
+        if (useDOM) {
+            // load the network from XML
+            Document document= BNetwork.loadXMLFile(filepath);
+            Element network = (Element)document.getElementsByTagName("NETWORK").item(0);
+
+            // init
+            initVariables(network);
+            initCPTs(network);
+        } else {
+            try (InputStream input = new FileInputStream(filepath)) {
+                initFromStream(input);
+            } catch (XMLStreamException ex) {
+                throw new SAXException(ex);
+            }
+        }
+
+        initStructure();
+    }
+
+    /**
+     * Create Bayesian Network from loaded data
+     *
+     * @param variableClasses the variables, by their keys
+     * @param parents the parents of every variable (reversed)
+     * @param CPTs the CPT of every variable
+     */
+    BNetwork(List<VariableClass> variableClasses, int[][] parents, double[][] CPTs) {
+        setVariables(variableClasses);
+
+        this.parents = parents;
+        this.CPTs = CPTs;
+
+        initStructure();
+    }
+
+    /**
+     * initialize the structure of the network from the parents -
+     * the children, the topological order, the ancestors and descendants bitsets and the moral graph
+     */
+    private void initStructure() {
+        int variablesLen = this.variableClasses.length;
+        int words = Bitsets.words(variablesLen);
+
+        // children
+        int[] childrenLengths = new int[variablesLen];
+        for (int[] variableParents : this.parents) {
+            for (int parent : variableParents) {
+                childrenLengths[parent]++;
+            }
+        }
+
+        this.children = new int[variablesLen][];
+        for (int variable = 0; variable < variablesLen; variable++) {
+            this.children[variable] = new int[childrenLengths[variable]];
+            childrenLengths[variable] = 0;
+        }
+
+        for (int variable = 0; variable < variablesLen; variable++) {
+            for (int parent : this.parents[variable]) {
+                this.children[parent][childrenLengths[parent]] = variable;
+                childrenLengths[parent]++;
+            }
+        }
+
+        // topological order (Kahn), the roots by the keys order
+        this.topologicalOrder = new int[variablesLen];
+        int[] remainingParents = new int[variablesLen];
+        int length = 0;
+        for (int variable = 0; variable < variablesLen; variable++) {
+            remainingParents[variable] = this.parents[variable].length;
+            if (remainingParents[variable] == 0) {
+                this.topologicalOrder[length] = variable;
+                length++;
+            }
+        }
+
+        for (int i = 0; i < length; i++) {
+            for (int child : this.children[this.topologicalOrder[i]]) {
+                remainingParents[child]--;
+                if (remainingParents[child] == 0) {
+                    this.topologicalOrder[length] = child;
+                    length++;
+                }
+            }
+        }
+
+        if (length != variablesLen) {
+            throw new IllegalArgumentException("the network has a cycle");
+        }
+
+        // ancestors, by the topological order - the parents and their ancestors
+        this.ancestors = new long[variablesLen][words];
+        for (int variable : this.topologicalOrder) {
+            for (int parent : this.parents[variable]) {
+                Bitsets.or(this.ancestors[variable], this.ancestors[parent]);
+                Bitsets.set(this.ancestors[variable], parent);
+            }
+        }
+
+        // descendants, by the reversed topological order - the children and their descendants
+        this.descendants = new long[variablesLen][words];
+        for (int i = variablesLen - 1; i >= 0; i--) {
+            int variable = this.topologicalOrder[i];
+            for (int child : this.children[variable]) {
+                Bitsets.or(this.descendants[variable], this.descendants[child]);
+                Bitsets.set(this.descendants[variable], child);
+            }
+        }
+
+        // moral graph
+        this.moralGraph = new long[variablesLen][words];
+        for (int variable = 0; variable < variablesLen; variable++) {
+            int[] variableParents = this.parents[variable];
 
-        // load the network from XML
-        Document document= BNetwork.loadXMLFile(filepath);
-        Element network = (Element)document.getElementsByTagName("NETWORK").item(0);
+            for (int i = 0; i < variableParents.length; i++) {
+                Bitsets.set(this.moralGraph[variable], variableParents[i]);
+                Bitsets.set(this.moralGraph[variableParents[i]], variable);
+
+                for (int j = i + 1; j < variableParents.length; j++) {
+                    Bitsets.set(this.moralGraph[variableParents[i]], variableParents[j]);
+                    Bitsets.set(this.moralGraph[variableParents[j]], variableParents[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * initialize the variables, the parents and the CPTs in single pass over the XML
+     *
+     * @param input the XML input
+     */
+    private void initFromStream(InputStream input) throws XMLStreamException {
+        XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+
+        List<VariableClass> variableClasses = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+
+        // the definitions, resolved after all the variables are known
+        List<String> definitionsNames = new ArrayList<>();
+        List<String[]> definitionsParents = new ArrayList<>();
+        List<double[]> definitionsTables = new ArrayList<>();
+        List<String> parentsNames = new ArrayList<>();
+
+        // the text of the current element
+        char[] text = new char[256];
+        int textLength = 0;
+
+        String name = null;
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    textLength = 0;
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    int length = reader.getTextLength();
+                    if (textLength + length > text.length) {
+                        text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+                    }
+                    System.arraycopy(reader.getTextCharacters(), reader.getTextStart(), text, textLength, length);
+                    textLength += length;
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    switch (reader.getLocalName()) {
+                        case "NAME":
+                        case "FOR":
+                            name = new String(text, 0, textLength);
+                            break;
+                        case "OUTCOME":
+                            values.add(new String(text, 0, textLength));
+                            break;
+                        case "GIVEN":
+                            parentsNames.add(new String(text, 0, textLength));
+                            break;
+                        case "TABLE":
+                            definitionsTables.add(parseTable(text, textLength));
+                            break;
+                        case "VARIABLE":
+                            variableClasses.add(new VariableClass(name, values.toArray(new String[0])));
+                            values.clear();
+                            break;
+                        case "DEFINITION":
+                            definitionsNames.add(name);
+                            definitionsParents.add(parentsNames.toArray(new String[0]));
+                            parentsNames.clear();
+                            break;
+                    }
+                    textLength = 0;
+                    break;
+            }
+        }
+
+        reader.close();
 
         // init
-        initVariables(network);
-        initCPTs(network);
+        setVariables(variableClasses);
+
+        this.parents = new int[this.variableClasses.length][];
+        this.CPTs = new double[this.variableClasses.length][];
+
+        for (int i = 0; i < definitionsNames.size(); i++) {
+            initSingleCPT(definitionsNames.get(i), definitionsParents.get(i), definitionsTables.get(i));
+        }
     }
 
     /**
@@ -101,13 +451,38 @@ public class BNetwork {
             variableClasses.add(variableClass);
         }
 
+        setVariables(variableClasses);
+    }
+
+    /**
+     * set the variables of the network
+     *
+     * @param variableClasses the variables, by their keys
+     */
+    private void setVariables(List<VariableClass> variableClasses) {
         this.variableClasses = new VariableClass[variableClasses.size()];
         variableClasses.toArray(this.variableClasses);
 
         this.variablesLengths = new int[variableClasses.size()];
 
+        String[] names = new String[this.variableClasses.length];
+
         for (int i = 0; i < this.variableClasses.length; i++) {
             this.variablesLengths[i] = this.variableClasses[i].getLength();
+            names[i] = this.variableClasses[i].getName();
+        }
+
+        this.variablesIndex = new NameIndex(names);
+
+        Integer[] byNames = new Integer[names.length];
+        for (int i = 0; i < names.length; i++) {
+            byNames[i] = i;
+        }
+        Arrays.sort(byNames, Comparator.comparing(i -> names[i]));
+
+        this.variablesNamesRanks = new int[names.length];
+        for (int rank = 0; rank < byNames.length; rank++) {
+            this.variablesNamesRanks[byNames[rank]] = rank;
         }
     }
 
@@ -129,9 +504,19 @@ public class BNetwork {
             Element definitionElement = (Element) definitionsElements.item(definitionIndex);
             String name = definitionElement.getElementsByTagName("FOR").item(0).getTextContent();
             NodeList parentsNodes = definitionElement.getElementsByTagName("GIVEN");
-            String[] tableValues = definitionElement.getElementsByTagName("TABLE").item(0).getTextContent().split("\\s+");
+            String[] tableValues = definitionElement.getElementsByTagName("TABLE").item(0).getTextContent().trim().split("\\s+");
+
+            String[] parentsNames = new String[parentsNodes.getLength()];
+            for (int i = 0; i < parentsNames.length; i++) {
+                parentsNames[i] = parentsNodes.item(i).getTextContent();
+            }
+
+            double[] table = new double[tableValues.length];
+            for (int i = 0; i < tableValues.length; i++) {
+                table[i] = Double.parseDouble(tableValues[i]);
+            }
 
-            initSingleCPT(name, parentsNodes, tableValues);
+            initSingleCPT(name, parentsNames, table);
         }
     }
 
@@ -139,15 +524,14 @@ public class BNetwork {
      * initialize single CPT with its parents
      *
      * @param name CPT variable name
-     * @param parentsNodes parents xml nodes
-     * @param tableValues cpt table
+     * @param parentsNames parents names, by the XML order
+     * @param table cpt table
      */
-    private void initSingleCPT(String name, NodeList parentsNodes, String[] tableValues) {
+    private void initSingleCPT(String name, String[] parentsNames, double[] table) {
         int variableKey = this.getVariableKey(name);
         List<Integer> parentsList = new LinkedList<>();
 
-        for (int i = 0; i < parentsNodes.getLength(); i++) {
-            String parentName = parentsNodes.item(i).getTextContent();
+        for (String parentName : parentsNames) {
             int parent = this.getVariableKey(parentName);
 
             // not itself
@@ -160,13 +544,36 @@ public class BNetwork {
 
         this.parents[variableKey] = parentsList.stream().mapToInt(i->i).toArray();
 
-        this.CPTs[variableKey] = new double[tableValues.length];
-        for (int i = 0; i < tableValues.length; i++) {
-            this.CPTs[variableKey][i] = Double.parseDouble(tableValues[i]);
-        }
+        this.CPTs[variableKey] = table;
     }
 
     // getters
+    /**
+     * get the Junction Tree of the network, the tree compiled only once
+     *
+     * @return the Junction Tree
+     */
+    public synchronized JunctionTree getJunctionTree() {
+        if (this.junctionTree == null) {
+            this.junctionTree = new JunctionTree(this);
+        }
+
+        return this.junctionTree;
+    }
+
+    /**
+     * get the factor graph of the network for belief propagation, the graph compiled only once
+     *
+     * @return the belief propagation of the network
+     */
+    public synchronized BeliefPropagation getBeliefPropagation() {
+        if (this.beliefPropagation == null) {
+            this.beliefPropagation = new BeliefPropagation(this);
+        }
+
+        return this.beliefPropagation;
+    }
+
     /**
      * get key of variable by name
      *
@@ -174,12 +581,18 @@ public class BNetwork {
      * @return key of the variable and -1 if this variable not exists in the network
      */
     public int getVariableKey(String name) {
-        for (int i = 0; i < variableClasses.length; i++) {
-            if (variableClasses[i].getName().equals(name)) {
-                return i;
-            }
-        }
+        return this.variablesIndex.getKey(name);
+    }
 
-        return -1;
+    /**
+     * get key of variable by name in range of chars
+     *
+     * @param chars the chars, example: query line
+     * @param from the first index of the name
+     * @param to the end index of the name (exclusive)
+     * @return key of the variable and -1 if this variable not exists in the network
+     */
+    public int getVariableKey(CharSequence chars, int from, int to) {
+        return this.variablesIndex.getKey(chars, from, to);
     }
 }
@@ -0,0 +1,703 @@
+import java.util.Arrays;
+
+/**
+ * Loopy belief propagation (query type 7), approximate inference for networks that are too big for the exact
+ * algorithms. The factor graph of the network (a factor for every CPT, connected to the variables of the CPT)
+ * is compiled once per network, the messages of every query are kept in flat buffers from the arena.
+ * The messages are sent by residual scheduling - the factor with the biggest change of its outgoing messages
+ * sends them first, and only the factors around the changed variables are recomputed. The messages are damped,
+ * and the propagation stops when the biggest change is below the tolerance or after max count of iterations
+ * (sends of every factor), so the time and the memory of every query are bounded.
+ * Only the factors of the requisite variables (Bayes-ball) take part in the propagation.
+ */
+public class BeliefPropagation {
+    /**
+     * the messages of single query, and the work buffers
+     */
+    private static final class Messages {
+        /**
+         * the messages from the factors to the variables, by the edges offsets
+         */
+        private double[] toVariables;
+
+        /**
+         * the messages from the variables to the factors, by the edges offsets
+         */
+        private double[] toFactors;
+
+        /**
+         * the next messages from the factors to the variables, by the edges offsets
+         */
+        private double[] pending;
+
+        /**
+         * the change of the outgoing messages of every factor (the max difference of value)
+         */
+        private double[] residuals;
+
+        /**
+         * max heap of the factors by their residuals
+         */
+        private int[] heap;
+
+        /**
+         * the index of every factor in the heap, -1 for factors that are not in the heap
+         */
+        private int[] heapIndexes;
+
+        /**
+         * count of the factors in the heap
+         */
+        private int heapLength;
+
+        /**
+         * the requisite flags of the variables (1 for variable with active factor)
+         */
+        private int[] active;
+
+        /**
+         * the value of every evidence, -1 for the other variables
+         */
+        private int[] evidences;
+
+        /**
+         * the last step that marked every factor
+         */
+        private int[] stamps;
+
+        /**
+         * work buffer for the values of the variables of factor
+         */
+        private int[] values;
+
+        /**
+         * work buffer for the products of the incoming messages of factor
+         */
+        private double[] products;
+
+        /**
+         * the damping of the messages of the query
+         */
+        private double damping;
+
+        /**
+         * True if all the values of some message are 0 - the evidences are impossible
+         */
+        private boolean impossible;
+
+        /**
+         * count of additions
+         */
+        private long additions;
+
+        /**
+         * count of multiplies
+         */
+        private long multiplies;
+    }
+
+    /**
+     * the convergence settings of the propagation, fixed for every query
+     */
+    public static final class Convergence {
+        /**
+         * the default settings
+         */
+        public static final Convergence DEFAULT = new Convergence(1e-6, 0.3, 100);
+
+        /**
+         * the tolerance of the changes of the messages
+         */
+        public final double tolerance;
+
+        /**
+         * the damping of the messages, the part of the old message in the sent message
+         */
+        public final double damping;
+
+        /**
+         * max count of iterations (sends of every factor)
+         */
+        public final int maxIterations;
+
+        /**
+         * create convergence settings
+         *
+         * @param tolerance the max change of value of message for convergence
+         * @param damping the part of the old message in the sent message, between 0 (no damping) and 1
+         * @param maxIterations max count of sends of every factor
+         */
+        public Convergence(double tolerance, double damping, int maxIterations) {
+            this.tolerance = tolerance;
+            this.damping = damping;
+            this.maxIterations = maxIterations;
+        }
+    }
+
+    // Members
+    /**
+     * the network
+     */
+    private final BNetwork network;
+
+    /**
+     * the first edge of every factor, the edges of factor f are from factorsEdges[f] to factorsEdges[f + 1].
+     * the factor f is the CPT of the variable f, its edges are by the order of the CPT variables
+     */
+    private final int[] factorsEdges;
+
+    /**
+     * the variable of every edge
+     */
+    private final int[] edgesVariables;
+
+    /**
+     * the jump of the variable of every edge, in the CPT of the factor
+     */
+    private final int[] edgesJumps;
+
+    /**
+     * the factor of every edge
+     */
+    private final int[] edgesFactors;
+
+    /**
+     * the offset of the messages of every edge in the messages buffers
+     */
+    private final int[] edgesOffsets;
+
+    /**
+     * the first edge of every variable in variablesEdgesList,
+     * the edges of variable v are from variablesEdges[v] to variablesEdges[v + 1]
+     */
+    private final int[] variablesEdges;
+
+    /**
+     * the edges of the variables
+     */
+    private final int[] variablesEdgesList;
+
+    /**
+     * the length of the messages buffers
+     */
+    private final int messagesLength;
+
+    /**
+     * the max count of variables of factor
+     */
+    private final int maxScope;
+
+    /**
+     * compile the factor graph of network
+     *
+     * @param network the network
+     */
+    public BeliefPropagation(BNetwork network) {
+        this.network = network;
+
+        int variablesLength = network.variableClasses.length;
+
+        // the edges of the factors
+        int edgesLength = 0;
+        int maxScope = 0;
+        this.factorsEdges = new int[variablesLength + 1];
+        for (int factor = 0; factor < variablesLength; factor++) {
+            this.factorsEdges[factor] = edgesLength;
+            edgesLength += 1 + network.parents[factor].length;
+            maxScope = Math.max(maxScope, 1 + network.parents[factor].length);
+        }
+        this.factorsEdges[variablesLength] = edgesLength;
+        this.maxScope = maxScope;
+
+        this.edgesVariables = new int[edgesLength];
+        this.edgesJumps = new int[edgesLength];
+        this.edgesFactors = new int[edgesLength];
+        this.edgesOffsets = new int[edgesLength];
+        int[] variablesEdgesLengths = new int[variablesLength];
+        int messagesLength = 0;
+
+        for (int factor = 0; factor < variablesLength; factor++) {
+            int edge = this.factorsEdges[factor];
+            int jump = 1;
+
+            for (int j = -1; j < network.parents[factor].length; j++) {
+                int variable = (j == -1) ? factor : network.parents[factor][j];
+
+                this.edgesVariables[edge] = variable;
+                this.edgesJumps[edge] = jump;
+                this.edgesFactors[edge] = factor;
+                this.edgesOffsets[edge] = messagesLength;
+
+                jump *= network.variablesLengths[variable];
+                messagesLength += network.variablesLengths[variable];
+                variablesEdgesLengths[variable]++;
+                edge++;
+            }
+        }
+        this.messagesLength = messagesLength;
+
+        // the edges of the variables
+        this.variablesEdges = new int[variablesLength + 1];
+        for (int variable = 0; variable < variablesLength; variable++) {
+            this.variablesEdges[variable + 1] = this.variablesEdges[variable] + variablesEdgesLengths[variable];
+            variablesEdgesLengths[variable] = 0;
+        }
+
+        this.variablesEdgesList = new int[edgesLength];
+        for (int edge = 0; edge < edgesLength; edge++) {
+            int variable = this.edgesVariables[edge];
+            this.variablesEdgesList[this.variablesEdges[variable] + variablesEdgesLengths[variable]] = edge;
+            variablesEdgesLengths[variable]++;
+        }
+    }
+
+    /**
+     * take the messages buffers of query from the arena
+     *
+     * @param arena the arena
+     * @return the messages
+     */
+    private Messages takeMessages(FactorArena arena) {
+        int variablesLength = this.network.variableClasses.length;
+
+        Messages messages = new Messages();
+        messages.toVariables = arena.takeDoubles(this.messagesLength);
+        messages.toFactors = arena.takeDoubles(this.messagesLength);
+        messages.pending = arena.takeDoubles(this.messagesLength);
+        messages.residuals = arena.takeDoubles(variablesLength);
+        messages.heap = arena.takeInts(variablesLength);
+        messages.heapIndexes = arena.takeInts(variablesLength);
+        messages.evidences = arena.takeInts(variablesLength);
+        messages.stamps = arena.takeInts(variablesLength);
+        messages.values = arena.takeInts(this.maxScope);
+        messages.products = arena.takeDoubles(this.maxScope + 1);
+
+        return messages;
+    }
+
+    /**
+     * release the messages buffers of query to the arena
+     *
+     * @param arena the arena
+     * @param messages the messages
+     */
+    private static void releaseMessages(FactorArena arena, Messages messages) {
+        arena.release(messages.toVariables);
+        arena.release(messages.toFactors);
+        arena.release(messages.pending);
+        arena.release(messages.residuals);
+        arena.release(messages.heap);
+        arena.release(messages.heapIndexes);
+        arena.release(messages.active);
+        arena.release(messages.evidences);
+        arena.release(messages.stamps);
+        arena.release(messages.values);
+        arena.release(messages.products);
+    }
+
+    /**
+     * normalize message, message that all its values are 0 is kept and marks the evidences as impossible
+     *
+     * @param buffer the messages buffer
+     * @param offset the offset of the message
+     * @param length the length of the message
+     * @param messages the messages (for the counters)
+     */
+    private static void normalize(double[] buffer, int offset, int length, Messages messages) {
+        double sum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            sum += buffer[i];
+        }
+        messages.additions += length - 1;
+
+        if (sum == 0) {
+            messages.impossible = true;
+            return;
+        }
+
+        for (int i = offset; i < offset + length; i++) {
+            buffer[i] /= sum;
+        }
+    }
+
+    /**
+     * compute the message from variable to factor - the product of the messages from the other active factors
+     *
+     * @param edge the edge of the variable and the factor
+     * @param messages the messages
+     */
+    private void updateToFactor(int edge, Messages messages) {
+        int variable = this.edgesVariables[edge];
+        int length = this.network.variablesLengths[variable];
+        int offset = this.edgesOffsets[edge];
+        double[] toFactors = messages.toFactors;
+
+        if (messages.evidences[variable] != -1) {
+            for (int i = 0; i < length; i++) {
+                toFactors[offset + i] = (i == messages.evidences[variable]) ? 1 : 0;
+            }
+            return;
+        }
+
+        for (int i = 0; i < length; i++) {
+            toFactors[offset + i] = 1;
+        }
+
+        for (int e = this.variablesEdges[variable]; e < this.variablesEdges[variable + 1]; e++) {
+            int other = this.variablesEdgesList[e];
+            if (other == edge || messages.active[this.edgesFactors[other]] == 0) {
+                continue;
+            }
+
+            int otherOffset = this.edgesOffsets[other];
+            for (int i = 0; i < length; i++) {
+                toFactors[offset + i] *= messages.toVariables[otherOffset + i];
+            }
+            messages.multiplies += length;
+        }
+
+        normalize(toFactors, offset, length, messages);
+    }
+
+    /**
+     * compute the next messages of factor to its variables (to the pending buffer), and the residual of the factor.
+     * the evidences are fixed, so only the values of the other variables are enumerated
+     *
+     * @param factor the factor
+     * @param messages the messages
+     */
+    private void computeFactor(int factor, Messages messages) {
+        int first = this.factorsEdges[factor];
+        int scope = this.factorsEdges[factor + 1] - first;
+        double[] cpt = this.network.CPTs[factor];
+        double[] pending = messages.pending;
+        double[] toFactors = messages.toFactors;
+        int[] values = messages.values;
+        double[] products = messages.products;
+
+        // the first index - the values of the evidences
+        int index = 0;
+        for (int j = 0; j < scope; j++) {
+            int edge = first + j;
+            int variable = this.edgesVariables[edge];
+            values[j] = Math.max(messages.evidences[variable], 0);
+            index += values[j] * this.edgesJumps[edge];
+
+            if (messages.evidences[variable] == -1) {
+                int offset = this.edgesOffsets[edge];
+                for (int i = 0; i < this.network.variablesLengths[variable]; i++) {
+                    pending[offset + i] = 0;
+                }
+            }
+        }
+
+        // enumerate the values of the non evidence variables
+        while (true) {
+            // the products of the messages before every variable, and after every variable
+            products[0] = cpt[index];
+            for (int j = 0; j < scope; j++) {
+                int edge = first + j;
+                products[j + 1] = products[j] * toFactors[this.edgesOffsets[edge] + values[j]];
+            }
+
+            double after = 1;
+            for (int j = scope - 1; j >= 0; j--) {
+                int edge = first + j;
+                if (messages.evidences[this.edgesVariables[edge]] == -1) {
+                    pending[this.edgesOffsets[edge] + values[j]] += products[j] * after;
+                }
+                after *= toFactors[this.edgesOffsets[edge] + values[j]];
+            }
+            messages.multiplies += 3L * scope;
+            messages.additions += scope;
+
+            // the next values
+            int j = 0;
+            while (j < scope) {
+                int edge = first + j;
+                int variable = this.edgesVariables[edge];
+                if (messages.evidences[variable] != -1) {
+                    j++;
+                    continue;
+                }
+
+                values[j]++;
+                index += this.edgesJumps[edge];
+                if (values[j] < this.network.variablesLengths[variable]) {
+                    break;
+                }
+
+                index -= values[j] * this.edgesJumps[edge];
+                values[j] = 0;
+                j++;
+            }
+
+            if (j == scope) {
+                break;
+            }
+        }
+
+        // normalize and find the residual
+        double residual = 0;
+        for (int j = 0; j < scope; j++) {
+            int edge = first + j;
+            int variable = this.edgesVariables[edge];
+            if (messages.evidences[variable] != -1) {
+                continue;
+            }
+
+            int offset = this.edgesOffsets[edge];
+            int length = this.network.variablesLengths[variable];
+            normalize(pending, offset, length, messages);
+
+            for (int i = offset; i < offset + length; i++) {
+                residual = Math.max(residual, Math.abs(pending[i] - messages.toVariables[i]));
+            }
+        }
+
+        messages.residuals[factor] = residual;
+    }
+
+    /**
+     * the residual of factor - the max difference between its pending messages and its sent messages
+     *
+     * @param factor the factor
+     * @param messages the messages
+     */
+    private void updateResidual(int factor, Messages messages) {
+        double residual = 0;
+        for (int edge = this.factorsEdges[factor]; edge < this.factorsEdges[factor + 1]; edge++) {
+            int variable = this.edgesVariables[edge];
+            if (messages.evidences[variable] != -1) {
+                continue;
+            }
+
+            int offset = this.edgesOffsets[edge];
+            for (int i = offset; i < offset + this.network.variablesLengths[variable]; i++) {
+                residual = Math.max(residual, Math.abs(messages.pending[i] - messages.toVariables[i]));
+            }
+        }
+
+        messages.residuals[factor] = residual;
+    }
+
+    // heap of the factors
+
+    /**
+     * swap factors in the heap
+     *
+     * @param messages the messages
+     * @param i index in the heap
+     * @param j other index in the heap
+     */
+    private static void heapSwap(Messages messages, int i, int j) {
+        int factor = messages.heap[i];
+        messages.heap[i] = messages.heap[j];
+        messages.heap[j] = factor;
+        messages.heapIndexes[messages.heap[i]] = i;
+        messages.heapIndexes[messages.heap[j]] = j;
+    }
+
+    /**
+     * add factor to the heap, or move it after its residual changed
+     *
+     * @param factor the factor
+     * @param messages the messages
+     */
+    private static void heapUpdate(int factor, Messages messages) {
+        double[] residuals = messages.residuals;
+        int[] heap = messages.heap;
+
+        int i = messages.heapIndexes[factor];
+        if (i == -1) {
+            i = messages.heapLength;
+            heap[i] = factor;
+            messages.heapIndexes[factor] = i;
+            messages.heapLength++;
+        }
+
+        // up
+        while (i > 0 && residuals[heap[(i - 1) / 2]] < residuals[heap[i]]) {
+            heapSwap(messages, i, (i - 1) / 2);
+            i = (i - 1) / 2;
+        }
+
+        // down
+        while (true) {
+            int biggest = i;
+            int left = 2 * i + 1;
+            int right = 2 * i + 2;
+            if (left < messages.heapLength && residuals[heap[left]] > residuals[heap[biggest]]) {
+                biggest = left;
+            }
+            if (right < messages.heapLength && residuals[heap[right]] > residuals[heap[biggest]]) {
+                biggest = right;
+            }
+            if (biggest == i) {
+                break;
+            }
+
+            heapSwap(messages, i, biggest);
+            i = biggest;
+        }
+    }
+
+    /**
+     * send the pending messages of factor (damped), and recompute the factors around the changed variables
+     *
+     * @param factor the factor
+     * @param step the count of the sends (for marking the recomputed factors)
+     * @param messages the messages
+     */
+    private void send(int factor, int step, Messages messages) {
+        double[] toVariables = messages.toVariables;
+        double[] pending = messages.pending;
+
+        for (int edge = this.factorsEdges[factor]; edge < this.factorsEdges[factor + 1]; edge++) {
+            int variable = this.edgesVariables[edge];
+            if (messages.evidences[variable] != -1) {
+                continue;
+            }
+
+            int offset = this.edgesOffsets[edge];
+            for (int i = offset; i < offset + this.network.variablesLengths[variable]; i++) {
+                toVariables[i] = (1 - messages.damping) * pending[i] + messages.damping * toVariables[i];
+            }
+            messages.multiplies += 2L * this.network.variablesLengths[variable];
+            messages.additions += this.network.variablesLengths[variable];
+        }
+
+        messages.stamps[factor] = step;
+        updateResidual(factor, messages);
+        heapUpdate(factor, messages);
+
+        // the messages of the variables to the other factors, and the next messages of the other factors
+        for (int edge = this.factorsEdges[factor]; edge < this.factorsEdges[factor + 1]; edge++) {
+            int variable = this.edgesVariables[edge];
+            if (messages.evidences[variable] != -1) {
+                continue;
+            }
+
+            for (int e = this.variablesEdges[variable]; e < this.variablesEdges[variable + 1]; e++) {
+                int other = this.variablesEdgesList[e];
+                if (other != edge && messages.active[this.edgesFactors[other]] != 0) {
+                    updateToFactor(other, messages);
+                }
+            }
+
+            for (int e = this.variablesEdges[variable]; e < this.variablesEdges[variable + 1]; e++) {
+                int otherFactor = this.edgesFactors[this.variablesEdgesList[e]];
+                if (messages.active[otherFactor] != 0 && messages.stamps[otherFactor] != step) {
+                    messages.stamps[otherFactor] = step;
+                    computeFactor(otherFactor, messages);
+                    heapUpdate(otherFactor, messages);
+                }
+            }
+        }
+    }
+
+    /**
+     * run query
+     *
+     * @param query the query
+     */
+    public void callQuery(Query query) {
+        query.results.probability = distribution(query)[query.queryValue];
+    }
+
+    /**
+     * get the distribution of the query variable (the normalized belief),
+     * NaN for impossible evidences (message that all its values are 0)
+     *
+     * @param query the query, with the convergence settings
+     * @return the probabilities of the query variable values
+     */
+    public double[] distribution(Query query) {
+        FactorArena arena = FactorArena.get();
+        Messages messages = takeMessages(arena);
+        int variablesLength = this.network.variableClasses.length;
+        Convergence convergence = query.convergence;
+        messages.damping = convergence.damping;
+        messages.impossible = false;
+
+        // the active factors - the CPTs of the requisite variables (with the requisite evidences)
+        messages.active = Relevance.requisite(this.network, query, arena);
+
+        Arrays.fill(messages.evidences, -1);
+        for (int i = 0; i < query.evidencesVariables.length; i++) {
+            messages.evidences[query.evidencesVariables[i]] = query.evidencesValues[i];
+        }
+
+        // init - uniform messages, and the first pending messages of all the active factors
+        for (int variable = 0; variable < variablesLength; variable++) {
+            int length = this.network.variablesLengths[variable];
+            for (int e = this.variablesEdges[variable]; e < this.variablesEdges[variable + 1]; e++) {
+                int offset = this.edgesOffsets[this.variablesEdgesList[e]];
+                for (int i = offset; i < offset + length; i++) {
+                    messages.toVariables[i] = 1.0 / length;
+                    messages.toFactors[i] = (messages.evidences[variable] == -1) ? 1.0 / length
+                            : (i - offset == messages.evidences[variable]) ? 1 : 0;
+                }
+            }
+        }
+
+        Arrays.fill(messages.heapIndexes, -1);
+        Arrays.fill(messages.stamps, -1);
+        messages.heapLength = 0;
+
+        int activeLength = 0;
+        for (int factor = 0; factor < variablesLength; factor++) {
+            if (messages.active[factor] != 0) {
+                computeFactor(factor, messages);
+                heapUpdate(factor, messages);
+                activeLength++;
+            }
+        }
+
+        // propagate by residuals
+        long maxSteps = (long) convergence.maxIterations * activeLength;
+        for (int step = 0; step < maxSteps && messages.heapLength > 0 && !messages.impossible; step++) {
+            int factor = messages.heap[0];
+            if (messages.residuals[factor] <= convergence.tolerance) {
+                break;
+            }
+
+            send(factor, step, messages);
+        }
+
+        // the belief of the query variable - the product of the messages from its active factors
+        int queryVariable = query.queryVariable;
+        int length = this.network.variablesLengths[queryVariable];
+        double[] belief = new double[length];
+        Arrays.fill(belief, 1);
+
+        for (int e = this.variablesEdges[queryVariable]; e < this.variablesEdges[queryVariable + 1]; e++) {
+            int edge = this.variablesEdgesList[e];
+            if (messages.active[this.edgesFactors[edge]] == 0) {
+                continue;
+            }
+
+            for (int i = 0; i < length; i++) {
+                belief[i] *= messages.toVariables[this.edgesOffsets[edge] + i];
+            }
+            messages.multiplies += length;
+        }
+
+        double sum = 0;
+        for (double value : belief) {
+            sum += value;
+        }
+        messages.additions += length - 1;
+
+        for (int i = 0; i < length; i++) {
+            belief[i] = messages.impossible ? Double.NaN : belief[i] / sum;
+        }
+
+        query.results.additions += (int) messages.additions;
+        query.results.multiplies += (int) messages.multiplies;
+
+        releaseMessages(arena, messages);
+
+        return belief;
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Compiled binary format of Bayesian Network, for loading without parsing XML.
+ * All the numbers are little-endian:
+ * magic, version, variables count,
+ * names table (for every variable: name, outcomes count, outcomes names - every name is length and UTF-8 bytes),
+ * parents offsets (variables count + 1) and the flattened parents,
+ * CPTs offsets (variables count + 1), padding to 8 bytes, and all the CPTs in one contiguous doubles region.
+ */
+public class BinaryNetwork {
+    /**
+     * the first int of the file - "BNET"
+     */
+    private static final int MAGIC = 0x54454E42;
+
+    /**
+     * the version of the format
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * the extension of compiled network files
+     */
+    public static final String EXTENSION = ".bnet";
+
+    // write
+
+    /**
+     * get the bytes length of name in the names table
+     *
+     * @param name the name
+     * @return the bytes length
+     */
+    private static int nameLength(String name) {
+        return 4 + name.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * write name to the names table
+     *
+     * @param buffer the file buffer
+     * @param name the name
+     */
+    private static void putName(ByteBuffer buffer, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * compile network to binary file
+     *
+     * @param network the network
+     * @param filepath path of the binary file
+     * @throws IOException failed to write the file
+     */
+    public static void write(BNetwork network, String filepath) throws IOException {
+        int variablesLength = network.variableClasses.length;
+
+        // the file length
+        long length = 12;
+        for (VariableClass variableClass : network.variableClasses) {
+            length += nameLength(variableClass.getName()) + 4;
+            for (int value = 0; value < variableClass.getLength(); value++) {
+                length += nameLength(variableClass.getValueName(value));
+            }
+        }
+
+        int parentsLength = 0;
+        int cptsLength = 0;
+        for (int variable = 0; variable < variablesLength; variable++) {
+            parentsLength += network.parents[variable].length;
+            cptsLength += network.CPTs[variable].length;
+        }
+
+        length += 4L * (variablesLength + 1) + 4L * parentsLength + 4L * (variablesLength + 1);
+        long cptsStart = (length + 7) & ~7L;
+        length = cptsStart + 8L * cptsLength;
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+
+        // header
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(variablesLength);
+
+        // names table
+        for (VariableClass variableClass : network.variableClasses) {
+            putName(buffer, variableClass.getName());
+            buffer.putInt(variableClass.getLength());
+            for (int value = 0; value < variableClass.getLength(); value++) {
+                putName(buffer, variableClass.getValueName(value));
+            }
+        }
+
+        // parents
+        int offset = 0;
+        for (int variable = 0; variable < variablesLength; variable++) {
+            buffer.putInt(offset);
+            offset += network.parents[variable].length;
+        }
+        buffer.putInt(offset);
+
+        for (int[] parents : network.parents) {
+            for (int parent : parents) {
+                buffer.putInt(parent);
+            }
+        }
+
+        // CPTs
+        offset = 0;
+        for (int variable = 0; variable < variablesLength; variable++) {
+            buffer.putInt(offset);
+            offset += network.CPTs[variable].length;
+        }
+        buffer.putInt(offset);
+
+        buffer.position((int) cptsStart);
+        for (double[] cpt : network.CPTs) {
+            buffer.asDoubleBuffer().put(cpt);
+            buffer.position(buffer.position() + 8 * cpt.length);
+        }
+
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(Paths.get(filepath),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    // load
+
+    /**
+     * read name from the names table
+     *
+     * @param buffer the file buffer
+     * @return the name
+     */
+    private static String getName(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * load network from binary file, by memory mapping the file
+     *
+     * @param filepath path of the binary file
+     * @return the network
+     * @throws IOException failed to read the file or the file isn't compiled network
+     */
+    public static BNetwork load(String filepath) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        // header
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException(filepath + " is not compiled network");
+        }
+        int variablesLength = buffer.getInt();
+
+        // names table
+        List<VariableClass> variableClasses = new ArrayList<>(variablesLength);
+        for (int variable = 0; variable < variablesLength; variable++) {
+            String name = getName(buffer);
+            String[] values = new String[buffer.getInt()];
+            for (int value = 0; value < values.length; value++) {
+                values[value] = getName(buffer);
+            }
+
+            variableClasses.add(new VariableClass(name, values));
+        }
+
+        // parents
+        int[] parentsOffsets = new int[variablesLength + 1];
+        buffer.asIntBuffer().get(parentsOffsets);
+        buffer.position(buffer.position() + 4 * parentsOffsets.length);
+
+        int[][] parents = new int[variablesLength][];
+        for (int variable = 0; variable < variablesLength; variable++) {
+            parents[variable] = new int[parentsOffsets[variable + 1] - parentsOffsets[variable]];
+            buffer.asIntBuffer().get(parents[variable]);
+            buffer.position(buffer.position() + 4 * parents[variable].length);
+        }
+
+        // CPTs - bulk copy of the mapped region, every CPT is single copy
+        int[] cptsOffsets = new int[variablesLength + 1];
+        buffer.asIntBuffer().get(cptsOffsets);
+        buffer.position((buffer.position() + 4 * cptsOffsets.length + 7) & ~7);
+
+        int cptsStart = buffer.position();
+        double[][] cpts = new double[variablesLength][];
+        for (int variable = 0; variable < variablesLength; variable++) {
+            cpts[variable] = new double[cptsOffsets[variable + 1] - cptsOffsets[variable]];
+            buffer.position(cptsStart + 8 * cptsOffsets[variable]);
+            buffer.asDoubleBuffer().get(cpts[variable]);
+        }
+
+        return new BNetwork(variableClasses, parents, cpts);
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Operations on sets of variables keys stored as bitsets (long[]),
+ * bit 'variable' of the set is bit (variable % 64) of word (variable / 64).
+ */
+public class Bitsets {
+    /**
+     * count of longs of bitset
+     *
+     * @param length count of the bits
+     * @return count of the words
+     */
+    public static int words(int length) {
+        return (length + 63) >>> 6;
+    }
+
+    /**
+     * check if bit is set
+     *
+     * @param bitset the bitset
+     * @param variable the variable
+     * @return True if the variable in the bitset
+     */
+    public static boolean has(long[] bitset, int variable) {
+        return (bitset[variable >>> 6] & (1L << variable)) != 0;
+    }
+
+    /**
+     * set bit
+     *
+     * @param bitset the bitset
+     * @param variable the variable
+     */
+    public static void set(long[] bitset, int variable) {
+        bitset[variable >>> 6] |= 1L << variable;
+    }
+
+    /**
+     * clear bit
+     *
+     * @param bitset the bitset
+     * @param variable the variable
+     */
+    public static void clear(long[] bitset, int variable) {
+        bitset[variable >>> 6] &= ~(1L << variable);
+    }
+
+    /**
+     * add all the bits of bitset to other bitset
+     *
+     * @param bitset the bitset, changed to the union
+     * @param other the other bitset
+     */
+    public static void or(long[] bitset, long[] other) {
+        for (int w = 0; w < bitset.length; w++) {
+            bitset[w] |= other[w];
+        }
+    }
+
+    /**
+     * count the bits of bitset
+     *
+     * @param bitset the bitset
+     * @return count of the variables in the bitset
+     */
+    public static int count(long[] bitset) {
+        int count = 0;
+        for (long word : bitset) {
+            count += Long.bitCount(word);
+        }
+
+        return count;
+    }
+
+    /**
+     * the first set bit from index
+     *
+     * @param bitset the bitset
+     * @param from the first index to check
+     * @return the first variable from the index in the bitset, -1 if there is no one
+     */
+    public static int next(long[] bitset, int from) {
+        int w = from >>> 6;
+        if (w >= bitset.length) {
+            return -1;
+        }
+
+        long bits = bitset[w] & (-1L << from);
+        while (bits == 0) {
+            w++;
+            if (w == bitset.length) {
+                return -1;
+            }
+            bits = bitset[w];
+        }
+
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+}
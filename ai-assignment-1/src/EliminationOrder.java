@@ -0,0 +1,269 @@
+import java.util.*;
+
+/**
+ * Heuristic elimination order for Variable Elimination.
+ * Keeps the interaction graph of the factors (adjacency bitsets), and the scores of the hidden variables
+ * in priority queue. After every elimination only the scores of the variables around the eliminated
+ * variable are updated, instead of scanning all the factors for every hidden variable.
+ * The graph has only the variables of the factors of the query, by local indexes, so its size doesn't depend
+ * on the size of the network.
+ */
+public class EliminationOrder implements HiddenChooser {
+    /**
+     * the heuristics for choosing the next hidden variable
+     */
+    public enum Heuristic {
+        /**
+         * the smallest created factor (the product of the neighbors lengths), ties by the fewest fill edges
+         */
+        MIN_WEIGHT,
+
+        /**
+         * the fewest fill edges (neighbors that are not connected), ties by the smallest created factor
+         */
+        MIN_FILL
+    }
+
+    /**
+     * score of hidden variable in the queue, the entry is stale if the variable was updated after it
+     */
+    private static final class Entry {
+        private final long primary;
+        private final long secondary;
+        private final int variable;
+        private final int version;
+
+        private Entry(long primary, long secondary, int variable, int version) {
+            this.primary = primary;
+            this.secondary = secondary;
+            this.variable = variable;
+            this.version = version;
+        }
+    }
+
+    // Members
+    /**
+     * the network of the query
+     */
+    private final BNetwork network;
+
+    /**
+     * the heuristic
+     */
+    private final Heuristic heuristic;
+
+    /**
+     * the variables of the graph by their local indexes
+     */
+    private int[] variables = null;
+
+    /**
+     * count of longs of every bitset
+     */
+    private int words = 0;
+
+    /**
+     * the interaction graph - adjacency[local] is bitset of the local indexes of the variable neighbors
+     */
+    private long[][] adjacency = null;
+
+    /**
+     * bitset of the local indexes of the hidden variables that not eliminated yet
+     */
+    private long[] candidates = null;
+
+    /**
+     * the version of the score of every local variable
+     */
+    private int[] versions = null;
+
+    /**
+     * the scores of the hidden variables
+     */
+    private final PriorityQueue<Entry> queue;
+
+    /**
+     * create elimination order for single query
+     *
+     * @param network the network of the query
+     * @param heuristic the heuristic
+     */
+    public EliminationOrder(BNetwork network, Heuristic heuristic) {
+        this.network = network;
+        this.heuristic = heuristic;
+
+        // by the score, ties by the variables names
+        this.queue = new PriorityQueue<>((entryA, entryB) -> {
+            if (entryA.primary != entryB.primary) {
+                return Long.compare(entryA.primary, entryB.primary);
+            }
+            if (entryA.secondary != entryB.secondary) {
+                return Long.compare(entryA.secondary, entryB.secondary);
+            }
+            return network.variablesNamesRanks[this.variables[entryA.variable]] - network.variablesNamesRanks[this.variables[entryB.variable]];
+        });
+    }
+
+    /**
+     * build the interaction graph of the factors and score the hidden variables
+     *
+     * @param hiddenVariables the hidden variables
+     * @param hiddenLength count of the hidden variables
+     * @param factors the factors
+     * @param factorsLength count of the factors
+     */
+    private void init(int[] hiddenVariables, int hiddenLength, Factor[] factors, int factorsLength) {
+        // the local indexes of the variables of the factors (and the hidden variables), by the first appearance
+        FactorArena arena = FactorArena.get();
+        int[] locals = arena.takeInts(this.network.variableClasses.length); // local index + 1, 0 for not in graph
+        int[] variables = arena.takeInts(this.network.variableClasses.length);
+        int length = 0;
+
+        for (int f = 0; f < factorsLength; f++) {
+            for (int variable : factors[f].variables) {
+                if (locals[variable] == 0) {
+                    variables[length] = variable;
+                    length++;
+                    locals[variable] = length;
+                }
+            }
+        }
+        for (int i = 0; i < hiddenLength; i++) {
+            int variable = hiddenVariables[i];
+            if (locals[variable] == 0) {
+                variables[length] = variable;
+                length++;
+                locals[variable] = length;
+            }
+        }
+
+        this.variables = Arrays.copyOf(variables, length);
+        this.words = Bitsets.words(length);
+        this.adjacency = new long[length][this.words];
+        this.candidates = new long[this.words];
+        this.versions = new int[length];
+
+        for (int f = 0; f < factorsLength; f++) {
+            int[] factorVariables = factors[f].variables;
+            for (int a : factorVariables) {
+                for (int b : factorVariables) {
+                    if (a != b) {
+                        Bitsets.set(this.adjacency[locals[a] - 1], locals[b] - 1);
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < hiddenLength; i++) {
+            Bitsets.set(this.candidates, locals[hiddenVariables[i]] - 1);
+        }
+
+        for (int i = 0; i < hiddenLength; i++) {
+            score(locals[hiddenVariables[i]] - 1);
+        }
+
+        arena.release(locals);
+        arena.release(variables);
+    }
+
+    /**
+     * compute the score of hidden variable and add it to the queue
+     *
+     * @param variable the local index of the hidden variable
+     */
+    private void score(int variable) {
+        long[] neighbors = this.adjacency[variable];
+
+        long weight = 1;
+        long fill = 0;
+
+        for (int w = 0; w < this.words; w++) {
+            long bits = neighbors[w];
+            while (bits != 0) {
+                int neighbor = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+
+                // the created factor size, saturated
+                int length = this.network.variablesLengths[this.variables[neighbor]];
+                weight = (weight > Long.MAX_VALUE / length) ? Long.MAX_VALUE : weight * length;
+
+                // the neighbors that are not connected to this neighbor (each pair counted twice)
+                long[] neighborAdjacency = this.adjacency[neighbor];
+                for (int k = 0; k < this.words; k++) {
+                    fill += Long.bitCount(neighbors[k] & ~neighborAdjacency[k]);
+                }
+                fill--; // the neighbor itself
+            }
+        }
+        fill /= 2;
+
+        this.versions[variable]++;
+        if (this.heuristic == Heuristic.MIN_FILL) {
+            this.queue.add(new Entry(fill, weight, variable, this.versions[variable]));
+        } else {
+            this.queue.add(new Entry(weight, fill, variable, this.versions[variable]));
+        }
+    }
+
+    /**
+     * eliminate variable from the interaction graph - connect its neighbors, and update the affected scores
+     *
+     * @param variable the local index of the variable
+     */
+    private void eliminate(int variable) {
+        long[] neighbors = this.adjacency[variable];
+        Bitsets.clear(this.candidates, variable);
+
+        // the variables with changed score - the neighbors and the neighbors of the neighbors (their fill changed)
+        long[] affected = neighbors.clone();
+
+        for (int w = 0; w < this.words; w++) {
+            long bits = neighbors[w];
+            while (bits != 0) {
+                int neighbor = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+
+                long[] neighborAdjacency = this.adjacency[neighbor];
+                Bitsets.or(neighborAdjacency, neighbors);
+                Bitsets.clear(neighborAdjacency, neighbor);
+                Bitsets.clear(neighborAdjacency, variable);
+
+                Bitsets.or(affected, neighborAdjacency);
+            }
+        }
+
+        Arrays.fill(neighbors, 0);
+
+        // rescore the hidden affected variables
+        for (int w = 0; w < this.words; w++) {
+            long bits = affected[w] & this.candidates[w];
+            while (bits != 0) {
+                score((w << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    @Override
+    public int choose(int[] hiddenVariables, int hiddenLength, Factor[] factors, int factorsLength) {
+        if (this.adjacency == null) {
+            init(hiddenVariables, hiddenLength, factors, factorsLength);
+        }
+
+        // the best variable with fresh score
+        Entry entry = this.queue.poll();
+        while (entry.version != this.versions[entry.variable] || !Bitsets.has(this.candidates, entry.variable)) {
+            entry = this.queue.poll();
+        }
+
+        eliminate(entry.variable);
+
+        int variable = this.variables[entry.variable];
+        int index = 0;
+        while (hiddenVariables[index] != variable) {
+            index++;
+        }
+
+        return index;
+    }
+}
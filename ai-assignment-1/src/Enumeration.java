@@ -0,0 +1,192 @@
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Exact enumeration of query (type 1) over all the variables of the network.
+ * The sums are by the order of the simple enumeration - for every value of the query variable, the assignments of
+ * the hidden variables by their order (the last one changes the fastest), and the product of every assignment
+ * multiplies the CPTs of all the variables by their order. So the probabilities are the same to the last bit.
+ * The products of the prefixes of the CPTs are kept, so every assignment multiplies again only from the first CPT
+ * that contains changed variable (the CPT of the changed variable or of its child), with the same multiplies
+ * and the same results.
+ * The sums of the values of the query variable are independent, so big enumerations sum them on the common
+ * ForkJoinPool, every sum by single task (the order of every sum doesn't depend on the count of the threads).
+ */
+public class Enumeration {
+    /**
+     * task of the sum of single value of the query variable
+     */
+    @SuppressWarnings("serial")
+    private static final class ValueTask extends RecursiveAction {
+        private final Enumeration enumeration;
+        private final int queryValue;
+        private final double[] probabilities;
+        private final long[] additions;
+
+        private ValueTask(Enumeration enumeration, int queryValue, double[] probabilities, long[] additions) {
+            this.enumeration = enumeration;
+            this.queryValue = queryValue;
+            this.probabilities = probabilities;
+            this.additions = additions;
+        }
+
+        @Override
+        protected void compute() {
+            this.enumeration.sum(this.queryValue, this.probabilities, this.additions);
+        }
+    }
+
+    // Members
+    /**
+     * the network of the query
+     */
+    private final BNetwork network;
+
+    /**
+     * the hidden variables, by their order
+     */
+    private final int[] hidden;
+
+    /**
+     * the first CPT (by the order of the variables) that contains any of the hidden variables from every index,
+     * the CPTs before it don't change when only these hidden variables change
+     */
+    private final int[] firstChanged;
+
+    /**
+     * the values of the evidences, by the variables keys (0 for the other variables)
+     */
+    private final int[] initValues;
+
+    /**
+     * the query variable
+     */
+    private final int queryVariable;
+
+    /**
+     * count of the assignments of the hidden variables
+     */
+    private final long assignments;
+
+    /**
+     * prepare the enumeration of query
+     *
+     * @param network the network
+     * @param query the query
+     * @param hidden the hidden variables of the query, by their order
+     */
+    public Enumeration(BNetwork network, Query query, int[] hidden) {
+        this.network = network;
+        this.queryVariable = query.queryVariable;
+        this.hidden = hidden;
+
+        this.firstChanged = new int[hidden.length + 1];
+        this.firstChanged[hidden.length] = network.variableClasses.length;
+        long assignments = 1;
+
+        for (int k = hidden.length - 1; k >= 0; k--) {
+            int variable = hidden[k];
+            int first = Math.min(this.firstChanged[k + 1], variable);
+            for (int child : network.children[variable]) {
+                first = Math.min(first, child);
+            }
+
+            this.firstChanged[k] = first;
+            assignments *= network.variablesLengths[variable];
+        }
+        this.assignments = assignments;
+
+        this.initValues = new int[network.variableClasses.length];
+        for (int i = 0; i < query.evidencesVariables.length; i++) {
+            this.initValues[query.evidencesVariables[i]] = query.evidencesValues[i];
+        }
+    }
+
+    /**
+     * sum the products of the CPTs over all the assignments, for every value of the query variable
+     *
+     * @param probabilities the sums (filled with 0), by the values of the query variable
+     * @param results the results for adding the counts of the operations
+     */
+    public void run(double[] probabilities, QueryResults results) {
+        long[] additions = new long[probabilities.length];
+
+        if (probabilities.length > 1 && ParallelFactors.isParallel(probabilities.length * this.assignments)) {
+            ValueTask[] tasks = new ValueTask[probabilities.length];
+            for (int value = 0; value < tasks.length; value++) {
+                tasks[value] = new ValueTask(this, value, probabilities, additions);
+                tasks[value].fork();
+            }
+
+            for (ValueTask task : tasks) {
+                task.join();
+            }
+        } else {
+            for (int value = 0; value < probabilities.length; value++) {
+                sum(value, probabilities, additions);
+            }
+        }
+
+        // every product multiplies the CPTs of all the variables (the first one is 1),
+        // and every sum adds the products that come while it isn't 0
+        long multiplies = probabilities.length * this.assignments * (this.network.variableClasses.length - 1);
+        results.multiplies += (int) multiplies;
+        for (long count : additions) {
+            results.additions += (int) count;
+        }
+    }
+
+    /**
+     * sum the products of the CPTs over all the assignments of the hidden variables, for single value
+     * of the query variable
+     *
+     * @param queryValue the value of the query variable
+     * @param probabilities the sums, by the values of the query variable
+     * @param additions the counts of the additions, by the values of the query variable
+     */
+    private void sum(int queryValue, double[] probabilities, long[] additions) {
+        int[] values = this.initValues.clone();
+        values[this.queryVariable] = queryValue;
+
+        // the products of the CPTs of the variables before every variable
+        double[] products = new double[this.network.variableClasses.length + 1];
+        products[0] = 1;
+
+        double probability = 0;
+        long count = 0;
+        int first = 0;
+
+        while (true) {
+            for (int i = first; i < this.network.variableClasses.length; i++) {
+                int cptIndex = values[i];
+                int jump = this.network.variablesLengths[i];
+
+                for (int parent : this.network.parents[i]) {
+                    cptIndex += values[parent] * jump;
+                    jump *= this.network.variablesLengths[parent];
+                }
+
+                products[i + 1] = products[i] * this.network.CPTs[i][cptIndex];
+            }
+
+            count += (probability == 0) ? 0 : 1; // the first one is 0
+            probability += products[this.network.variableClasses.length];
+
+            // move to the next values
+            int k = this.hidden.length - 1;
+            while (k >= 0 && values[this.hidden[k]] == this.network.variablesLengths[this.hidden[k]] - 1) {
+                values[this.hidden[k]] = 0;
+                k--;
+            }
+
+            if (k == -1) {
+                break;
+            }
+
+            values[this.hidden[k]]++;
+            first = this.firstChanged[k];
+        }
+
+        probabilities[queryValue] = probability;
+        additions[queryValue] = count;
+    }
+}
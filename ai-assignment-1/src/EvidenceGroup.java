@@ -0,0 +1,222 @@
+import java.util.*;
+
+/**
+ * Queries of the same evidences, that share the work of Variable Elimination (types 2 and 3).
+ * The factors of the CPTs reduced by the evidences are created once for the group, and every elimination step
+ * (the hidden variable and the factors joined to eliminate it) is memoized with its counts, so the queries with
+ * common steps (like common prefix of the elimination order) compute them once, and every query still counts
+ * the operations of all its steps - the counts are the same as running the queries one by one.
+ * The shared factors are marked, so the arena doesn't take back their buffers.
+ * The queries of group run one after the other (single thread).
+ */
+public class EvidenceGroup {
+    /**
+     * memoized elimination step
+     */
+    static final class Step {
+        /**
+         * the eliminated factor
+         */
+        final Factor factor;
+
+        /**
+         * count of the additions of the step
+         */
+        final int additions;
+
+        /**
+         * count of the multiplies of the step
+         */
+        final int multiplies;
+
+        private Step(Factor factor, int additions, int multiplies) {
+            this.factor = factor;
+            this.additions = additions;
+            this.multiplies = multiplies;
+        }
+    }
+
+    /**
+     * key of elimination step - the hidden variable and the joined factors (by identity, the factors of the group
+     * are never changed), by the join order
+     */
+    private static final class StepKey {
+        /**
+         * the eliminated variable
+         */
+        private final int variable;
+
+        /**
+         * the joined factors
+         */
+        private final Factor[] factors;
+
+        /**
+         * the hash of the key
+         */
+        private final int hash;
+
+        private StepKey(int variable, Factor[] factors, int factorsLength) {
+            this.variable = variable;
+            this.factors = Arrays.copyOf(factors, factorsLength);
+
+            int hash = variable;
+            for (Factor factor : this.factors) {
+                hash = hash * 31 + System.identityHashCode(factor);
+            }
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof StepKey)) {
+                return false;
+            }
+
+            StepKey key = (StepKey) other;
+            if (key.variable != this.variable || key.factors.length != this.factors.length) {
+                return false;
+            }
+
+            for (int i = 0; i < this.factors.length; i++) {
+                if (key.factors[i] != this.factors[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    // Members
+    /**
+     * the factor of every variable reduced by the evidences, null for factor without variables
+     */
+    private final Factor[] reducedFactors;
+
+    /**
+     * the variables that their reduced factors are created
+     */
+    private final boolean[] reduced;
+
+    /**
+     * the memoized elimination steps
+     */
+    private final Map<StepKey, Step> steps = new HashMap<>();
+
+    /**
+     * count of the steps taken from the memo
+     */
+    private long sharedSteps = 0;
+
+    /**
+     * create empty group
+     *
+     * @param network the network of the queries
+     */
+    public EvidenceGroup(BNetwork network) {
+        this.reducedFactors = new Factor[network.variableClasses.length];
+        this.reduced = new boolean[network.variableClasses.length];
+    }
+
+    /**
+     * the canonical evidences of query line - the evidences sorted, so the lines of the same evidences
+     * (in any order) have the same key
+     *
+     * @param queryInput query line, example: P(B=T|J=T,M=T),1
+     * @return the key, example: J=T,M=T
+     */
+    public static String evidencesKey(String queryInput) {
+        int from = queryInput.indexOf('|');
+        int to = queryInput.lastIndexOf(')');
+        if (from == -1 || to < from) {
+            return "";
+        }
+
+        String[] evidences = queryInput.substring(from + 1, to).split(",");
+        Arrays.sort(evidences);
+
+        return String.join(",", evidences);
+    }
+
+    /**
+     * check if the reduced factor of variable is created
+     *
+     * @param variable the variable
+     * @return True if the factor is created (it can be null)
+     */
+    boolean isReduced(int variable) {
+        return this.reduced[variable];
+    }
+
+    /**
+     * get the reduced factor of variable
+     *
+     * @param variable the variable
+     * @return the factor, null for factor without variables
+     */
+    Factor getReducedFactor(int variable) {
+        return this.reducedFactors[variable];
+    }
+
+    /**
+     * set the reduced factor of variable, it is shared from now
+     *
+     * @param variable the variable
+     * @param factor the factor, null for factor without variables
+     */
+    void setReducedFactor(int variable, Factor factor) {
+        if (factor != null) {
+            factor.shared = true;
+        }
+
+        this.reducedFactors[variable] = factor;
+        this.reduced[variable] = true;
+    }
+
+    /**
+     * find memoized elimination step
+     *
+     * @param variable the eliminated variable
+     * @param factors the joined factors, by the join order
+     * @param factorsLength count of the factors in factors
+     * @return the step, null if the step isn't memoized
+     */
+    Step getStep(int variable, Factor[] factors, int factorsLength) {
+        Step step = this.steps.get(new StepKey(variable, factors, factorsLength));
+        if (step != null) {
+            this.sharedSteps++;
+        }
+
+        return step;
+    }
+
+    /**
+     * memoize elimination step, its factor is shared from now
+     *
+     * @param variable the eliminated variable
+     * @param factors the joined factors, by the join order
+     * @param factorsLength count of the factors in factors
+     * @param factor the eliminated factor
+     * @param additions count of the additions of the step
+     * @param multiplies count of the multiplies of the step
+     */
+    void putStep(int variable, Factor[] factors, int factorsLength, Factor factor, int additions, int multiplies) {
+        factor.shared = true;
+        this.steps.put(new StepKey(variable, factors, factorsLength), new Step(factor, additions, multiplies));
+    }
+
+    /**
+     * get count of the steps taken from the memo
+     *
+     * @return the count
+     */
+    public long getSharedSteps() {
+        return this.sharedSteps;
+    }
+}
@@ -1,5 +1,7 @@
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Entry Point class of the application
@@ -40,8 +42,7 @@ class Ex1 {
             "P(D1=T|C2=v1,C3=F),2\n" +
             "P(D1=T|C2=v1,C3=F),3";
 
-    InputStream inputStream = new ByteArrayInputStream(input.getBytes());
-    scanner = new Scanner(inputStream);
+    reader = new QueryReader(ByteBuffer.wrap(input.getBytes()));
   }
 
   // production
@@ -50,27 +51,197 @@ class Ex1 {
    * load the input from file called input.txt
    * and change the output to file called output.txt
    *
-   * @throws FileNotFoundException the file not found
+   * @throws IOException the file not found
    */
-  private static void setProductionInputAndOutput() throws FileNotFoundException {
-    scanner = new Scanner(new File("input.txt"));
+  private static void setProductionInputAndOutput() throws IOException {
+    reader = new QueryReader("input.txt");
 
     System.setOut(new PrintStream(new File("output.txt")));
   }
 
-  // input scanner
-  static private Scanner scanner = new Scanner(System.in);
+  // input reader (of the production or the tests input)
+  static private QueryReader reader = null;
+
+  // options
+
+  /**
+   * count of the workers for running the queries, 1 for running them one by one
+   */
+  static private int threads = 1;
+
+  /**
+   * max count of results in the queries cache, 0 for no cache
+   */
+  static private int cacheCapacity = 4096;
+
+  /**
+   * print the cache statistics to the error output
+   */
+  static private boolean printStats = false;
+
+  /**
+   * count of the lines of every block that its queries are grouped by their evidences, 0 for no grouping
+   */
+  static private int groupBlock = 0;
+
+  /**
+   * the xml network and the binary file for compiling the network, null for running queries
+   */
+  static private String[] compilePaths = null;
+
+  /**
+   * the tolerance of the changes of the messages of the belief propagation (type 7)
+   */
+  static private double bpTolerance = BeliefPropagation.Convergence.DEFAULT.tolerance;
+
+  /**
+   * the damping of the messages of the belief propagation
+   */
+  static private double bpDamping = BeliefPropagation.Convergence.DEFAULT.damping;
+
+  /**
+   * max count of iterations of the belief propagation
+   */
+  static private int bpIterations = BeliefPropagation.Convergence.DEFAULT.maxIterations;
+
+  /**
+   * the file of the queries profiles (*.json for JSON, CSV elsewhere), null for no file
+   */
+  static private String profilePath = null;
+
+  /**
+   * emit JFR event of every query
+   */
+  static private boolean profileJFR = false;
+
+  /**
+   * the port of the query server, -1 for running the input file
+   */
+  static private int serverPort = -1;
+
+  /**
+   * the networks files that the query server loads on start
+   */
+  static private String[] serverNetworks = new String[0];
+
+  /**
+   * load the options from the args
+   *
+   * @param args args, example: --threads 4 --cache 1024
+   */
+  private static void loadOptions(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--threads") && i + 1 < args.length) {
+        i++;
+        threads = Integer.parseInt(args[i]);
+      } else if (args[i].equals("--cache") && i + 1 < args.length) {
+        i++;
+        cacheCapacity = Integer.parseInt(args[i]);
+      } else if (args[i].equals("--group") && i + 1 < args.length) {
+        i++;
+        groupBlock = Integer.parseInt(args[i]);
+      } else if (args[i].equals("--stats")) {
+        printStats = true;
+      } else if (args[i].equals("--parallel-threshold") && i + 1 < args.length) {
+        i++;
+        ParallelFactors.setThreshold(Integer.parseInt(args[i]));
+      } else if (args[i].equals("--samples") && i + 1 < args.length) {
+        i++;
+        Sampler.setSamples(Long.parseLong(args[i]));
+      } else if (args[i].equals("--ci-width") && i + 1 < args.length) {
+        i++;
+        Sampler.setConfidenceWidth(Double.parseDouble(args[i]));
+      } else if (args[i].equals("--seed") && i + 1 < args.length) {
+        i++;
+        Sampler.setSeed(Long.parseLong(args[i]));
+      } else if (args[i].equals("--bp-tolerance") && i + 1 < args.length) {
+        i++;
+        bpTolerance = Double.parseDouble(args[i]);
+      } else if (args[i].equals("--bp-damping") && i + 1 < args.length) {
+        i++;
+        bpDamping = Double.parseDouble(args[i]);
+      } else if (args[i].equals("--bp-iterations") && i + 1 < args.length) {
+        i++;
+        bpIterations = Integer.parseInt(args[i]);
+      } else if (args[i].equals("--profile") && i + 1 < args.length) {
+        i++;
+        profilePath = args[i];
+      } else if (args[i].equals("--profile-jfr")) {
+        profileJFR = true;
+      } else if (args[i].equals("--server") && i + 1 < args.length) {
+        i++;
+        serverPort = Integer.parseInt(args[i]);
+      } else if (args[i].equals("--preload") && i + 1 < args.length) {
+        i++;
+        serverNetworks = args[i].split(",");
+      } else if (args[i].equals("--compile") && i + 2 < args.length) {
+        compilePaths = new String[]{args[i + 1], args[i + 2]};
+        i += 2;
+      }
+    }
+  }
+
+  /**
+   * run the query server until the process is stopped, the workers are the threads option
+   * (or the count of the processors, if it is 1)
+   */
+  private static void runServer() {
+    int workers = (threads > 1) ? threads : Runtime.getRuntime().availableProcessors();
+    BeliefPropagation.Convergence convergence = new BeliefPropagation.Convergence(bpTolerance, bpDamping, bpIterations);
+
+    try (QueryServer server = new QueryServer(serverPort, workers, cacheCapacity, convergence)) {
+      for (String networkPath : serverNetworks) {
+        server.load(networkPath);
+      }
+
+      System.err.println("listening on port " + server.getPort());
+      server.run();
+    } catch (IOException ex) {
+      System.err.println("Can't run the server: " + ex.getMessage());
+    }
+  }
 
   /**
    * Entry Point of the application
    *
-   * @param args args
+   * @param args args, "--threads N" for running the queries on N workers,
+   *             "--cache N" for caching up to N results (0 for no cache),
+   *             "--group N" for grouping every N lines by their evidences, so the queries of the same evidences
+   *             share the Variable Elimination work (0 for no grouping, the default),
+   *             "--stats" for printing the cache statistics,
+   *             "--parallel-threshold N" for running factors operations of N probabilities or more in parallel,
+   *             "--samples N" for sampling up to N samples by the approximate queries (types 5 and 6),
+   *             "--ci-width W" for stopping the sampling when the 95% confidence interval is narrower than W,
+   *             "--seed N" for the seed of the sampling,
+   *             "--bp-tolerance T", "--bp-damping D", "--bp-iterations N" for the belief propagation (type 7),
+   *             "--profile queries.csv" for writing the profile of every query (phases times, largest factor,
+   *             elimination order and allocated bytes) to CSV file (or JSON file, by the .json extension),
+   *             "--profile-jfr" for emitting JFR event of every query (needs the jfr build),
+   *             "--compile network.xml network.bnet" for compiling network to binary file (without running queries),
+   *             "--server PORT" for running query server on the local PORT (instead of the input file),
+   *             "--preload a.xml,b.xml" for loading networks when the server starts
    */
   public static void main(String[] args) {
+    loadOptions(args);
+
+    if (compilePaths != null) {
+      try {
+        BinaryNetwork.write(new BNetwork(compilePaths[0]), compilePaths[1]);
+      } catch (Exception ex) {
+        System.out.println("Can't compile the " + compilePaths[0] + " file");
+      }
+      return;
+    }
+
+    if (serverPort >= 0) {
+      runServer();
+      return;
+    }
+
     // production
     try {
       setProductionInputAndOutput();
-    } catch (FileNotFoundException ex) {
+    } catch (IOException ex) {
       System.out.println("Can't load the input file");
       return;
     }
@@ -82,20 +253,53 @@ class Ex1 {
     // load the network
     BNetwork network;
 
-    String networkPath = scanner.nextLine();
+    String networkPath = reader.next();
     try {
-      network = new BNetwork(networkPath);
+      if (networkPath.endsWith(BinaryNetwork.EXTENSION)) {
+        network = BinaryNetwork.load(networkPath);
+      } else {
+        network = new BNetwork(networkPath);
+      }
     } catch (Exception ex) {
       System.out.println("Can't load the " + networkPath + " file");
       return;
     }
 
     // the main loop
-    while (scanner.hasNext()) {
-      String queryInput = scanner.nextLine();
-      Query query = new Query(network, queryInput);
+    QueryCache cache = (cacheCapacity > 0) ? new QueryCache(cacheCapacity) : null;
+    QueryProfiler profiler = null;
+    if (profilePath != null || profileJFR) {
+      try {
+        profiler = new QueryProfiler(network, profilePath, profileJFR);
+      } catch (IOException | IllegalStateException ex) {
+        System.err.println("Can't profile the queries: " + ex.getMessage());
+      }
+    }
+
+    BeliefPropagation.Convergence convergence = new BeliefPropagation.Convergence(bpTolerance, bpDamping, bpIterations);
+    QueryBatch batch = new QueryBatch(network, threads, cache, profiler, groupBlock, convergence);
+    try (ResultsWriter out = new ResultsWriter(System.out)) {
+      batch.run(reader, out);
+    } catch (InterruptedException | ExecutionException | IOException ex) {
+      System.out.println("Can't run the queries: " + ex.getMessage());
+    }
+
+    if (profiler != null) {
+      try {
+        profiler.close();
+      } catch (IOException ex) {
+        System.err.println("Can't write the profiles: " + ex.getMessage());
+      }
+    }
+
+    try {
+      reader.close();
+    } catch (IOException ex) {
+      // nothing to do, the input is read
+    }
 
-      Algorithms.callQuery(query, network);
+    if (printStats && cache != null) {
+      System.err.println("cache hits: " + cache.getHits() + ", misses: " + cache.getMisses());
     }
   }
 }
\ No newline at end of file
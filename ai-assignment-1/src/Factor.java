@@ -12,6 +12,11 @@ public class Factor {
      */
     public double[] probabilities;
 
+    /**
+     * the factor is shared by queries (of EvidenceGroup), so the arena doesn't release it
+     */
+    public boolean shared = false;
+
     public Factor(int[] variables, double[] probabilities) {
         this.variables = variables;
         this.probabilities = probabilities;
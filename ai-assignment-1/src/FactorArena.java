@@ -0,0 +1,332 @@
+import java.util.*;
+
+/**
+ * Arena of factors buffers for Variable Elimination.
+ * The factors of query are taken from the arena and released back when they are joined or eliminated,
+ * so the next factors (of the same query or of the next queries on the same thread) reuse their buffers.
+ * The buffers are kept by their exact lengths (the size classes), so the length of buffer is always
+ * the length of its factor.
+ */
+public class FactorArena {
+    /**
+     * pool of buffers of single type, by the buffers lengths
+     */
+    private static final class BufferPool {
+        /**
+         * the length of the buffers of every slot, -1 for empty slot
+         */
+        private int[] lengths = new int[64];
+
+        /**
+         * the free buffers of every slot
+         */
+        private Object[][] buffers = new Object[64][];
+
+        /**
+         * count of free buffers of every slot
+         */
+        private int[] counts = new int[64];
+
+        /**
+         * count of the used slots
+         */
+        private int used = 0;
+
+        private BufferPool() {
+            Arrays.fill(this.lengths, -1);
+        }
+
+        /**
+         * find the slot of length
+         *
+         * @param length the buffers length
+         * @return the slot of the length, or the empty slot for it
+         */
+        private int slot(int length) {
+            int mask = this.lengths.length - 1;
+            int slot = (length * 0x9E3779B9) >>> 16 & mask;
+
+            while (this.lengths[slot] != -1 && this.lengths[slot] != length) {
+                slot = (slot + 1) & mask;
+            }
+
+            return slot;
+        }
+
+        /**
+         * take free buffer
+         *
+         * @param length the buffer length
+         * @return the buffer, null if there is no free buffer of this length
+         */
+        private Object take(int length) {
+            int slot = slot(length);
+            if (this.lengths[slot] == -1 || this.counts[slot] == 0) {
+                return null;
+            }
+
+            this.counts[slot]--;
+            Object buffer = this.buffers[slot][this.counts[slot]];
+            this.buffers[slot][this.counts[slot]] = null;
+
+            return buffer;
+        }
+
+        /**
+         * give back free buffer
+         *
+         * @param length the buffer length
+         * @param buffer the buffer
+         */
+        private void give(int length, Object buffer) {
+            int slot = slot(length);
+
+            if (this.lengths[slot] == -1) {
+                // keep at most half of the slots used
+                if ((this.used + 1) * 2 > this.lengths.length) {
+                    grow();
+                    slot = slot(length);
+                }
+
+                this.lengths[slot] = length;
+                this.buffers[slot] = new Object[4];
+                this.used++;
+            }
+
+            if (this.counts[slot] == this.buffers[slot].length) {
+                this.buffers[slot] = Arrays.copyOf(this.buffers[slot], this.counts[slot] * 2);
+            }
+
+            this.buffers[slot][this.counts[slot]] = buffer;
+            this.counts[slot]++;
+        }
+
+        /**
+         * double the slots
+         */
+        private void grow() {
+            int[] oldLengths = this.lengths;
+            Object[][] oldBuffers = this.buffers;
+            int[] oldCounts = this.counts;
+
+            this.lengths = new int[oldLengths.length * 2];
+            this.buffers = new Object[oldLengths.length * 2][];
+            this.counts = new int[oldLengths.length * 2];
+            Arrays.fill(this.lengths, -1);
+
+            for (int i = 0; i < oldLengths.length; i++) {
+                if (oldLengths[i] != -1) {
+                    int slot = slot(oldLengths[i]);
+                    this.lengths[slot] = oldLengths[i];
+                    this.buffers[slot] = oldBuffers[i];
+                    this.counts[slot] = oldCounts[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * the arena of every thread
+     */
+    private static final ThreadLocal<FactorArena> ARENAS = ThreadLocal.withInitial(FactorArena::new);
+
+    /**
+     * max bytes of free buffers kept by arena, bigger buffers are left to the GC
+     */
+    private static final long MAX_FREE_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * get the arena of the current thread
+     *
+     * @return the arena
+     */
+    public static FactorArena get() {
+        return ARENAS.get();
+    }
+
+    // Members
+    /**
+     * the free probabilities buffers
+     */
+    private final BufferPool doubles = new BufferPool();
+
+    /**
+     * the free variables and indexes buffers
+     */
+    private final BufferPool ints = new BufferPool();
+
+    /**
+     * the free bitsets buffers
+     */
+    private final BufferPool longs = new BufferPool();
+
+    /**
+     * the free factors arrays
+     */
+    private final BufferPool factorsArrays = new BufferPool();
+
+    /**
+     * the free factors
+     */
+    private final ArrayDeque<Factor> factors = new ArrayDeque<>();
+
+    /**
+     * bytes of the free buffers
+     */
+    private long freeBytes = 0;
+
+    // take
+
+    /**
+     * take probabilities buffer, the buffer content is not cleared
+     *
+     * @param length the buffer length
+     * @return the buffer
+     */
+    public double[] takeDoubles(int length) {
+        double[] buffer = (double[]) this.doubles.take(length);
+        if (buffer == null) {
+            return new double[length];
+        }
+
+        this.freeBytes -= 8L * length;
+        return buffer;
+    }
+
+    /**
+     * take ints buffer, the buffer is filled with zeros
+     *
+     * @param length the buffer length
+     * @return the buffer
+     */
+    public int[] takeInts(int length) {
+        int[] buffer = (int[]) this.ints.take(length);
+        if (buffer == null) {
+            return new int[length];
+        }
+
+        this.freeBytes -= 4L * length;
+        Arrays.fill(buffer, 0);
+        return buffer;
+    }
+
+    /**
+     * take longs buffer (bitset), the buffer is filled with zeros
+     *
+     * @param length the buffer length
+     * @return the buffer
+     */
+    public long[] takeLongs(int length) {
+        long[] buffer = (long[]) this.longs.take(length);
+        if (buffer == null) {
+            return new long[length];
+        }
+
+        this.freeBytes -= 8L * length;
+        Arrays.fill(buffer, 0);
+        return buffer;
+    }
+
+    /**
+     * take factors array, the array is filled with nulls
+     *
+     * @param length the array length
+     * @return the array
+     */
+    public Factor[] takeFactors(int length) {
+        Factor[] array = (Factor[]) this.factorsArrays.take(length);
+        if (array == null) {
+            return new Factor[length];
+        }
+
+        this.freeBytes -= 4L * length;
+        return array;
+    }
+
+    /**
+     * take factor
+     *
+     * @param variables the factor variables
+     * @param probabilities the factor probabilities
+     * @return the factor
+     */
+    public Factor factor(int[] variables, double[] probabilities) {
+        Factor factor = this.factors.pollFirst();
+        if (factor == null) {
+            return new Factor(variables, probabilities);
+        }
+
+        factor.variables = variables;
+        factor.probabilities = probabilities;
+        return factor;
+    }
+
+    // release
+
+    /**
+     * release probabilities buffer
+     *
+     * @param buffer the buffer
+     */
+    public void release(double[] buffer) {
+        if (this.freeBytes + 8L * buffer.length <= MAX_FREE_BYTES) {
+            this.doubles.give(buffer.length, buffer);
+            this.freeBytes += 8L * buffer.length;
+        }
+    }
+
+    /**
+     * release ints buffer
+     *
+     * @param buffer the buffer
+     */
+    public void release(int[] buffer) {
+        if (this.freeBytes + 4L * buffer.length <= MAX_FREE_BYTES) {
+            this.ints.give(buffer.length, buffer);
+            this.freeBytes += 4L * buffer.length;
+        }
+    }
+
+    /**
+     * release longs buffer
+     *
+     * @param buffer the buffer
+     */
+    public void release(long[] buffer) {
+        if (this.freeBytes + 8L * buffer.length <= MAX_FREE_BYTES) {
+            this.longs.give(buffer.length, buffer);
+            this.freeBytes += 8L * buffer.length;
+        }
+    }
+
+    /**
+     * release factors array
+     *
+     * @param array the array
+     */
+    public void release(Factor[] array) {
+        if (this.freeBytes + 4L * array.length <= MAX_FREE_BYTES) {
+            Arrays.fill(array, null);
+            this.factorsArrays.give(array.length, array);
+            this.freeBytes += 4L * array.length;
+        }
+    }
+
+    /**
+     * release factor with its buffers, shared factor isn't released
+     *
+     * @param factor the factor
+     */
+    public void release(Factor factor) {
+        if (factor.shared) {
+            return;
+        }
+
+        release(factor.variables);
+        release(factor.probabilities);
+
+        factor.variables = null;
+        factor.probabilities = null;
+        this.factors.addFirst(factor);
+    }
+}
@@ -0,0 +1,230 @@
+import java.util.SplittableRandom;
+
+/**
+ * Gibbs sampling (query type 6).
+ * Every chunk is independent chain - it starts from forward sample with the evidences, makes burn-in sweeps,
+ * and then counts the sweeps with the query value. Every sweep samples every non evidence variable
+ * from its distribution given its Markov blanket (its CPT and the CPTs of its children).
+ * The estimate is the part of all the sweeps with the query value,
+ * and its standard error is by the spread of the estimates of the chains.
+ * The chain reaches every assignment only when all the CPTs values are nonzero - with zero values it can be stuck
+ * in part of the assignments (and impossible evidences have no assignment to start from), so these queries
+ * must run by other way (see isErgodic).
+ */
+public class GibbsSampling extends Sampler {
+    /**
+     * count of the burn-in sweeps of every chain
+     */
+    static final int BURN_IN = 256;
+
+    /**
+     * the index of the count of the sweeps with the query value in the statistics
+     */
+    private static final int MATCHES = 2;
+
+    /**
+     * the index of the count of the sweeps
+     */
+    private static final int SWEEPS = 3;
+
+    /**
+     * the index of the sum of the estimates of the chains
+     */
+    private static final int CHAINS_ESTIMATES = 4;
+
+    /**
+     * the index of the sum of the squared estimates of the chains
+     */
+    private static final int CHAINS_SQUARED_ESTIMATES = 5;
+
+    /**
+     * the index of the count of the chains
+     */
+    private static final int CHAINS = 6;
+
+    // Members
+    /**
+     * the children (indexes in net) of every variable of net
+     */
+    private final int[][] netChildren;
+
+    /**
+     * the jump of every child in netChildren, in the CPT of the child
+     */
+    private final int[][] childrenJumps;
+
+    /**
+     * the max length of the variables of net
+     */
+    private final int maxLength;
+
+    /**
+     * prepare Gibbs sampling of query
+     *
+     * @param network the network
+     * @param query the query
+     */
+    public GibbsSampling(BNetwork network, Query query) {
+        super(network, query);
+
+        int[] netIndexes = new int[network.variableClasses.length];
+        for (int i = 0; i < this.net.length; i++) {
+            netIndexes[this.net[i]] = i + 1;
+        }
+
+        this.netChildren = new int[this.net.length][];
+        this.childrenJumps = new int[this.net.length][];
+        int maxLength = 1;
+
+        for (int i = 0; i < this.net.length; i++) {
+            int variable = this.net[i];
+            maxLength = Math.max(maxLength, network.variablesLengths[variable]);
+
+            int length = 0;
+            for (int child : network.children[variable]) {
+                length += (netIndexes[child] != 0) ? 1 : 0;
+            }
+
+            this.netChildren[i] = new int[length];
+            this.childrenJumps[i] = new int[length];
+            length = 0;
+
+            for (int child : network.children[variable]) {
+                if (netIndexes[child] == 0) {
+                    continue;
+                }
+
+                int childIndex = netIndexes[child] - 1;
+                int j = 0;
+                while (network.parents[child][j] != variable) {
+                    j++;
+                }
+
+                this.netChildren[i][length] = childIndex;
+                this.childrenJumps[i][length] = this.parentsJumps[childIndex][j];
+                length++;
+            }
+        }
+
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * check if the chain reaches every assignment of the non evidence variables,
+     * that is True when all the values of the CPTs of net are nonzero
+     *
+     * @return True if the estimate of the chain is right
+     */
+    public boolean isErgodic() {
+        for (int variable : this.net) {
+            for (double probability : this.network.CPTs[variable]) {
+                if (probability == 0) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    protected int statsLength() {
+        return 7;
+    }
+
+    @Override
+    protected void sampleChunk(SplittableRandom random, int length, double[] stats) {
+        int[] values = this.initValues.clone();
+        double[] distribution = new double[this.maxLength];
+        int queryVariable = this.query.queryVariable;
+        int queryValue = this.query.queryValue;
+
+        long additions = 0;
+        long multiplies = 0;
+        long matches = 0;
+
+        sampleForward(random, values);
+
+        for (int sweep = -BURN_IN; sweep < length; sweep++) {
+            for (int i = 0; i < this.net.length; i++) {
+                if (this.isEvidence[i]) {
+                    continue;
+                }
+
+                int variable = this.net[i];
+                int variableLength = this.network.variablesLengths[variable];
+                double[] cpt = this.network.CPTs[variable];
+                int row = rowIndex(i, values);
+
+                // the distribution of the variable given its Markov blanket
+                double sum = 0;
+                for (int value = 0; value < variableLength; value++) {
+                    distribution[value] = cpt[row + value];
+                }
+
+                int[] children = this.netChildren[i];
+                int[] jumps = this.childrenJumps[i];
+                for (int c = 0; c < children.length; c++) {
+                    int child = this.net[children[c]];
+                    double[] childCPT = this.network.CPTs[child];
+                    int childIndex = rowIndex(children[c], values) + values[child] - values[variable] * jumps[c];
+
+                    for (int value = 0; value < variableLength; value++) {
+                        distribution[value] *= childCPT[childIndex + value * jumps[c]];
+                    }
+                    multiplies += variableLength;
+                }
+
+                for (int value = 0; value < variableLength; value++) {
+                    sum += distribution[value];
+                }
+                additions += variableLength - 1;
+
+                // sample by the distribution (the sum is positive, all the CPTs values are nonzero)
+                double u = random.nextDouble() * sum;
+                int value = 0;
+                double cumulative = distribution[0];
+                while (u >= cumulative && value < variableLength - 1) {
+                    value++;
+                    cumulative += distribution[value];
+                }
+                values[variable] = value;
+            }
+
+            if (sweep >= 0 && values[queryVariable] == queryValue) {
+                matches++;
+            }
+        }
+
+        double chainEstimate = (double) matches / length;
+
+        stats[MATCHES] += matches;
+        stats[SWEEPS] += length;
+        stats[CHAINS_ESTIMATES] += chainEstimate;
+        stats[CHAINS_SQUARED_ESTIMATES] += chainEstimate * chainEstimate;
+        stats[CHAINS] += 1;
+        stats[ADDITIONS] += additions + matches;
+        stats[MULTIPLIES] += multiplies;
+    }
+
+    @Override
+    protected double estimate(double[] stats) {
+        return stats[MATCHES] / stats[SWEEPS];
+    }
+
+    @Override
+    protected double standardError(double[] stats) {
+        double chains = stats[CHAINS];
+
+        // single chain - as independent samples
+        if (chains < 2) {
+            double p = estimate(stats);
+            return Math.sqrt(p * (1 - p) / stats[SWEEPS]);
+        }
+
+        double mean = stats[CHAINS_ESTIMATES] / chains;
+        double variance = (stats[CHAINS_SQUARED_ESTIMATES] - chains * mean * mean) / (chains - 1);
+
+        return Math.sqrt(Math.max(variance, 0) / chains);
+    }
+}
@@ -1,5 +1,3 @@
-import java.util.List;
-
 /**
  * Hidden Chooser for Variable Elimination
  */
@@ -9,8 +7,10 @@ public interface HiddenChooser {
      * Choosing hidden variable for Variable Elimination in BNetwork
      *
      * @param hiddenVariables the hidden variables
+     * @param hiddenLength count of the hidden variables in hiddenVariables
      * @param factors the factors
+     * @param factorsLength count of the factors in factors
      * @return the index of the hidden variable to remove in hiddenVariables
      */
-    int choose(List<Integer> hiddenVariables, List<Factor> factors);
+    int choose(int[] hiddenVariables, int hiddenLength, Factor[] factors, int factorsLength);
 }
@@ -0,0 +1,548 @@
+import java.util.*;
+
+/**
+ * Inference session over the Junction Tree of network - the evidences are added and retracted one by one,
+ * and the posteriors are read after every step, without starting every step from the CPTs.
+ * The session keeps the message of every separator in both directions (to the parent and from the parent).
+ * Changing evidence changes the potential of single clique, so only the messages that go away from that clique
+ * are stale, and they are computed again only when posterior needs them - reading posterior after a step
+ * computes the messages on the path between the changed clique and the clique of the variable.
+ * The session isn't thread safe (one session per client).
+ */
+public class InferenceSession {
+    // Members
+    /**
+     * the network of the session
+     */
+    private final BNetwork network;
+
+    /**
+     * the Junction Tree of the network
+     */
+    private final JunctionTree tree;
+
+    /**
+     * the children of every clique
+     */
+    private final int[][] children;
+
+    /**
+     * the potential of every clique without evidences (the product of its CPTs), never changed
+     */
+    private final double[][] basePotentials;
+
+    /**
+     * the potential of every clique with its evidences (the base potential if it has no evidences)
+     */
+    private final double[][] potentials;
+
+    /**
+     * the value of every evidence variable, -1 for not evidence
+     */
+    private final int[] evidences;
+
+    /**
+     * the message of every clique to its parent (normalized)
+     */
+    private final double[][] upMessages;
+
+    /**
+     * the message of the parent of every clique to the clique (normalized)
+     */
+    private final double[][] downMessages;
+
+    /**
+     * the messages to the parents that are up to date
+     */
+    private final boolean[] upValid;
+
+    /**
+     * the messages from the parents that are up to date
+     */
+    private final boolean[] downValid;
+
+    /**
+     * the belief of every clique (the potential with all its messages), computed by demand
+     */
+    private final double[][] beliefs;
+
+    /**
+     * the version of the evidences of every belief, the belief is up to date if it is the current version
+     */
+    private final int[] beliefsVersions;
+
+    /**
+     * the version of the evidences, changed by every step
+     */
+    private int version = 1;
+
+    /**
+     * the stamp of the cliques on the path from clique to the root
+     */
+    private final int[] pathStamps;
+
+    /**
+     * the current path stamp
+     */
+    private int pathStamp = 0;
+
+    /**
+     * the product of the potential and the messages of clique, reused by the messages
+     */
+    private final double[] product;
+
+    /**
+     * count of the messages computed by the session
+     */
+    private long messagesCount = 0;
+
+    /**
+     * create session without evidences
+     *
+     * @param network the network
+     */
+    public InferenceSession(BNetwork network) {
+        this.network = network;
+        this.tree = network.getJunctionTree();
+
+        int cliquesLength = this.tree.cliques.length;
+        int variablesLength = network.variableClasses.length;
+
+        // the children of the cliques
+        int[] childrenLengths = new int[cliquesLength];
+        for (int clique = 0; clique < cliquesLength; clique++) {
+            if (this.tree.parentClique[clique] != -1) {
+                childrenLengths[this.tree.parentClique[clique]]++;
+            }
+        }
+
+        this.children = new int[cliquesLength][];
+        for (int clique = 0; clique < cliquesLength; clique++) {
+            this.children[clique] = new int[childrenLengths[clique]];
+            childrenLengths[clique] = 0;
+        }
+        for (int clique = 0; clique < cliquesLength; clique++) {
+            int parent = this.tree.parentClique[clique];
+            if (parent != -1) {
+                this.children[parent][childrenLengths[parent]] = clique;
+                childrenLengths[parent]++;
+            }
+        }
+
+        this.evidences = new int[variablesLength];
+        Arrays.fill(this.evidences, -1);
+
+        this.basePotentials = this.tree.createPotentials(this.evidences, new QueryResults());
+        this.potentials = this.basePotentials.clone();
+
+        this.upMessages = new double[cliquesLength][];
+        this.downMessages = new double[cliquesLength][];
+        this.upValid = new boolean[cliquesLength];
+        this.downValid = new boolean[cliquesLength];
+        this.beliefs = new double[cliquesLength][];
+        this.beliefsVersions = new int[cliquesLength];
+        this.pathStamps = new int[cliquesLength];
+
+        int maxLength = 0;
+        for (int clique = 0; clique < cliquesLength; clique++) {
+            maxLength = Math.max(maxLength, this.tree.cliquesLengths[clique]);
+
+            if (this.tree.parentClique[clique] != -1) {
+                this.upMessages[clique] = new double[this.tree.separatorLength(clique)];
+                this.downMessages[clique] = new double[this.tree.separatorLength(clique)];
+            }
+        }
+        this.product = new double[maxLength];
+    }
+
+    // evidences
+
+    /**
+     * add evidence, or change the value of evidence
+     *
+     * @param variable the variable
+     * @param value the value of the variable
+     * @throws IllegalArgumentException the value not exists, or the evidence is impossible given the other evidences
+     */
+    public void addEvidence(int variable, int value) {
+        if (value < 0 || value >= this.network.variablesLengths[variable]) {
+            throw new IllegalArgumentException("bad value " + value + " of " + this.network.variableClasses[variable].getName());
+        }
+        if (this.evidences[variable] == value) {
+            return;
+        }
+
+        // the evidence must be possible, so the session stays consistent
+        int old = this.evidences[variable];
+        if (old != -1) {
+            retractEvidence(variable);
+        }
+        if (posterior(variable)[value] == 0) {
+            if (old != -1) {
+                addEvidence(variable, old);
+            }
+            throw new IllegalArgumentException("impossible evidence " + evidenceName(variable, value));
+        }
+
+        this.evidences[variable] = value;
+
+        int clique = this.tree.variableClique[variable];
+        if (this.potentials[clique] == this.basePotentials[clique]) {
+            this.potentials[clique] = this.basePotentials[clique].clone();
+        }
+        absorbEvidence(clique, variable, value);
+
+        changed(clique);
+    }
+
+    /**
+     * add evidence by names
+     *
+     * @param name the variable name
+     * @param value the value name
+     * @throws IllegalArgumentException the variable or the value not exists, or the evidence is impossible
+     */
+    public void addEvidence(String name, String value) {
+        int variable = variableKey(name);
+        int valueKey = this.network.variableClasses[variable].getValueKey(value);
+        if (valueKey == -1) {
+            throw new IllegalArgumentException("unknown value " + name + "=" + value);
+        }
+
+        addEvidence(variable, valueKey);
+    }
+
+    /**
+     * retract evidence, nothing if the variable isn't evidence
+     *
+     * @param variable the variable
+     */
+    public void retractEvidence(int variable) {
+        if (this.evidences[variable] == -1) {
+            return;
+        }
+
+        this.evidences[variable] = -1;
+
+        // the potential again from the base, with the other evidences of the clique
+        int clique = this.tree.variableClique[variable];
+        double[] potential = null;
+        for (int other : this.tree.cliques[clique]) {
+            if (this.evidences[other] != -1 && this.tree.variableClique[other] == clique) {
+                if (potential == null) {
+                    potential = this.basePotentials[clique].clone();
+                    this.potentials[clique] = potential;
+                }
+                absorbEvidence(clique, other, this.evidences[other]);
+            }
+        }
+        if (potential == null) {
+            this.potentials[clique] = this.basePotentials[clique];
+        }
+
+        changed(clique);
+    }
+
+    /**
+     * retract evidence by name
+     *
+     * @param name the variable name
+     * @throws IllegalArgumentException the variable not exists
+     */
+    public void retractEvidence(String name) {
+        retractEvidence(variableKey(name));
+    }
+
+    /**
+     * retract all the evidences
+     */
+    public void clearEvidences() {
+        for (int variable = 0; variable < this.evidences.length; variable++) {
+            retractEvidence(variable);
+        }
+    }
+
+    /**
+     * get the value of evidence
+     *
+     * @param variable the variable
+     * @return the value, -1 if the variable isn't evidence
+     */
+    public int getEvidence(int variable) {
+        return this.evidences[variable];
+    }
+
+    // posteriors
+
+    /**
+     * get the posterior of variable given the evidences
+     *
+     * @param variable the variable
+     * @return the probabilities of the variable values
+     */
+    public double[] posterior(int variable) {
+        int clique = this.tree.variableClique[variable];
+        double[] belief = belief(clique);
+        int[] map = this.tree.variableMaps[variable];
+
+        double[] probabilities = new double[this.network.variablesLengths[variable]];
+        for (int i = 0; i < belief.length; i++) {
+            probabilities[map[i]] += belief[i];
+        }
+
+        double sum = 0;
+        for (double probability : probabilities) {
+            sum += probability;
+        }
+        for (int i = 0; i < probabilities.length; i++) {
+            probabilities[i] /= sum;
+        }
+
+        return probabilities;
+    }
+
+    /**
+     * get the posterior of variable given the evidences, by name
+     *
+     * @param name the variable name
+     * @return the probabilities of the variable values
+     * @throws IllegalArgumentException the variable not exists
+     */
+    public double[] posterior(String name) {
+        return posterior(variableKey(name));
+    }
+
+    /**
+     * get the posterior probability of value given the evidences
+     *
+     * @param name the variable name
+     * @param value the value name
+     * @return the probability
+     * @throws IllegalArgumentException the variable or the value not exists
+     */
+    public double probability(String name, String value) {
+        int variable = variableKey(name);
+        int valueKey = this.network.variableClasses[variable].getValueKey(value);
+        if (valueKey == -1) {
+            throw new IllegalArgumentException("unknown value " + name + "=" + value);
+        }
+
+        return posterior(variable)[valueKey];
+    }
+
+    /**
+     * get count of the messages computed by the session (for statistics)
+     *
+     * @return the count
+     */
+    public long getMessagesCount() {
+        return this.messagesCount;
+    }
+
+    // the messages
+
+    /**
+     * zero the other values of evidence in the potential of its clique
+     *
+     * @param clique the clique of the variable
+     * @param variable the evidence variable
+     * @param value the evidence value
+     */
+    private void absorbEvidence(int clique, int variable, int value) {
+        double[] potential = this.potentials[clique];
+        int[] map = this.tree.variableMaps[variable];
+
+        for (int i = 0; i < potential.length; i++) {
+            if (map[i] != value) {
+                potential[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * mark the messages that go away from changed clique as stale - the messages to the parents
+     * on the path from the clique to the root, and the messages from the parents of all the other cliques
+     *
+     * @param clique the changed clique
+     */
+    private void changed(int clique) {
+        int stamp = stampPath(clique);
+
+        for (int other = 0; other < this.pathStamps.length; other++) {
+            if (this.pathStamps[other] == stamp) {
+                this.upValid[other] = false;
+            } else {
+                this.downValid[other] = false;
+            }
+        }
+
+        this.version++;
+    }
+
+    /**
+     * stamp the cliques on the path from clique to the root
+     *
+     * @param clique the clique
+     * @return the stamp
+     */
+    private int stampPath(int clique) {
+        this.pathStamp++;
+        for (int c = clique; c != -1; c = this.tree.parentClique[c]) {
+            this.pathStamps[c] = this.pathStamp;
+        }
+
+        return this.pathStamp;
+    }
+
+    /**
+     * get the belief of clique - its potential with all the messages to it, the stale messages to it are
+     * computed first (the messages from the subtrees by the leaves first, then the messages down the path)
+     *
+     * @param clique the clique
+     * @return the belief (not normalized)
+     */
+    private double[] belief(int clique) {
+        if (this.beliefsVersions[clique] == this.version) {
+            return this.beliefs[clique];
+        }
+
+        int stamp = stampPath(clique);
+        int[] order = this.tree.order;
+
+        for (int step = order.length - 1; step > 0; step--) {
+            int other = order[step];
+            if (this.pathStamps[other] != stamp && !this.upValid[other]) {
+                sendUp(other);
+            }
+        }
+
+        for (int step = 1; step < order.length; step++) {
+            int other = order[step];
+            if (this.pathStamps[other] == stamp && !this.downValid[other]) {
+                sendDown(other);
+            }
+        }
+
+        if (this.beliefs[clique] == null) {
+            this.beliefs[clique] = new double[this.tree.cliquesLengths[clique]];
+        }
+        multiplyMessages(clique, -1, this.beliefs[clique]);
+        this.beliefsVersions[clique] = this.version;
+
+        return this.beliefs[clique];
+    }
+
+    /**
+     * multiply the potential of clique by the messages to it
+     *
+     * @param clique the clique
+     * @param except the neighbor clique that its message isn't multiplied (-1 for all the messages)
+     * @param result the product
+     */
+    private void multiplyMessages(int clique, int except, double[] result) {
+        double[] potential = this.potentials[clique];
+        int length = potential.length;
+        System.arraycopy(potential, 0, result, 0, length);
+
+        int parent = this.tree.parentClique[clique];
+        if (parent != -1 && parent != except) {
+            double[] message = this.downMessages[clique];
+            int[] map = this.tree.separatorMaps[clique];
+            for (int i = 0; i < length; i++) {
+                result[i] *= message[map[i]];
+            }
+        }
+
+        for (int child : this.children[clique]) {
+            if (child == except) {
+                continue;
+            }
+
+            double[] message = this.upMessages[child];
+            int[] map = this.tree.parentSeparatorMaps[child];
+            for (int i = 0; i < length; i++) {
+                result[i] *= message[map[i]];
+            }
+        }
+    }
+
+    /**
+     * compute the message of clique to its parent
+     *
+     * @param clique the clique
+     */
+    private void sendUp(int clique) {
+        multiplyMessages(clique, this.tree.parentClique[clique], this.product);
+        marginalize(this.product, this.tree.cliquesLengths[clique], this.tree.separatorMaps[clique], this.upMessages[clique]);
+        this.upValid[clique] = true;
+    }
+
+    /**
+     * compute the message of the parent of clique to the clique
+     *
+     * @param clique the clique
+     */
+    private void sendDown(int clique) {
+        int parent = this.tree.parentClique[clique];
+        multiplyMessages(parent, clique, this.product);
+        marginalize(this.product, this.tree.cliquesLengths[parent], this.tree.parentSeparatorMaps[clique], this.downMessages[clique]);
+        this.downValid[clique] = true;
+    }
+
+    /**
+     * marginalize product to separator, normalized so long paths don't underflow
+     *
+     * @param product the product of clique
+     * @param length the length of the product
+     * @param map map from the product indexes to the separator indexes
+     * @param message the separator table
+     */
+    private void marginalize(double[] product, int length, int[] map, double[] message) {
+        Arrays.fill(message, 0);
+        for (int i = 0; i < length; i++) {
+            message[map[i]] += product[i];
+        }
+
+        double sum = 0;
+        for (double value : message) {
+            sum += value;
+        }
+        if (sum > 0) {
+            for (int i = 0; i < message.length; i++) {
+                message[i] /= sum;
+            }
+        }
+
+        this.messagesCount++;
+    }
+
+    // names
+
+    /**
+     * get variable key by name
+     *
+     * @param name the variable name
+     * @return the key
+     * @throws IllegalArgumentException the variable not exists
+     */
+    private int variableKey(String name) {
+        int variable = this.network.getVariableKey(name);
+        if (variable == -1) {
+            throw new IllegalArgumentException("unknown variable " + name);
+        }
+
+        return variable;
+    }
+
+    /**
+     * the name of evidence, for errors
+     *
+     * @param variable the variable
+     * @param value the value
+     * @return the name, example: B=T
+     */
+    private String evidenceName(int variable, int value) {
+        VariableClass variableClass = this.network.variableClasses[variable];
+        return variableClass.getName() + "=" + variableClass.getValueName(value);
+    }
+}
@@ -0,0 +1,642 @@
+import java.util.*;
+
+/**
+ * Junction Tree (Clique Tree) of Bayesian Network.
+ * The tree compiled once per network, from triangulation of the moral graph,
+ * and every query only absorbs its evidences and passes messages over the tree (Hugin architecture).
+ */
+public class JunctionTree {
+    // static utils
+
+    /**
+     * create map from the indexes of table to the indexes of smaller table,
+     * the variables of the smaller table must be in the variables of the table.
+     * both the tables are saved with the first variable changing the fastest.
+     *
+     * @param network the network of the variables
+     * @param variables the variables of the table
+     * @param subVariables the variables of the smaller table
+     * @return map[table index] = smaller table index
+     */
+    static int[] createIndexMap(BNetwork network, int[] variables, int[] subVariables) {
+        // the jump of each variable in the smaller table, 0 if not in the smaller table
+        int[] jumps = new int[variables.length];
+        int jump = 1;
+        for (int subVariable : subVariables) {
+            int i = 0;
+            while (variables[i] != subVariable) {
+                i++;
+            }
+
+            jumps[i] = jump;
+            jump *= network.variablesLengths[subVariable];
+        }
+
+        int length = 1;
+        for (int variable : variables) {
+            length *= network.variablesLengths[variable];
+        }
+
+        int[] map = new int[length];
+        int[] values = new int[variables.length];
+        int subIndex = 0;
+
+        for (int index = 0; index < length; index++) {
+            map[index] = subIndex;
+
+            // move to next value
+            int k = 0;
+            while (k < values.length && values[k] == network.variablesLengths[variables[k]] - 1) {
+                subIndex -= values[k] * jumps[k];
+                values[k] = 0;
+                k++;
+            }
+
+            if (k < values.length) {
+                values[k]++;
+                subIndex += jumps[k];
+            }
+        }
+
+        return map;
+    }
+
+    // Members
+    /**
+     * the network of the tree
+     */
+    private final BNetwork network;
+
+    /**
+     * the variables of each clique
+     */
+    final int[][] cliques;
+
+    /**
+     * the tables lengths of the cliques
+     */
+    final int[] cliquesLengths;
+
+    /**
+     * the parent clique of each clique, -1 for the root
+     */
+    final int[] parentClique;
+
+    /**
+     * the cliques ordered from the root to the leaves, every clique is after its parent
+     */
+    final int[] order;
+
+    /**
+     * the variables of the separator between each clique and its parent
+     */
+    final int[][] separators;
+
+    /**
+     * map from the indexes of each clique to the indexes of the separator with its parent
+     */
+    final int[][] separatorMaps;
+
+    /**
+     * map from the indexes of each clique to the indexes of the separator with its parent, in the parent clique
+     */
+    final int[][] parentSeparatorMaps;
+
+    /**
+     * the variables that their CPTs assigned to each clique
+     */
+    final int[][] assignedCPTs;
+
+    /**
+     * map from the indexes of each clique to the indexes of each assigned CPT
+     */
+    final int[][][] assignedCPTsMaps;
+
+    /**
+     * a clique that contains each variable
+     */
+    final int[] variableClique;
+
+    /**
+     * map from the indexes of the clique of each variable to the values of the variable
+     */
+    final int[][] variableMaps;
+
+    /**
+     * compile Junction Tree of network
+     *
+     * @param network the network
+     */
+    public JunctionTree(BNetwork network) {
+        this.network = network;
+
+        int variablesLength = network.variableClasses.length;
+
+        // moral graph
+        long[][] graph = new long[variablesLength][];
+        for (int variable = 0; variable < variablesLength; variable++) {
+            graph[variable] = network.moralGraph[variable].clone();
+        }
+
+        // triangulation by min-fill elimination, the cliques are the eliminated variables with their neighbors
+        List<int[]> candidates = triangulate(graph);
+
+        // keep the maximal cliques
+        List<int[]> cliquesList = new ArrayList<>(candidates.size());
+        boolean[] inClique = new boolean[variablesLength];
+        for (int i = 0; i < candidates.size(); i++) {
+            boolean isMaximal = true;
+
+            for (int j = 0; j < candidates.size() && isMaximal; j++) {
+                int[] other = candidates.get(j);
+                if (i == j || other.length < candidates.get(i).length) {
+                    continue;
+                }
+
+                for (int variable : other) {
+                    inClique[variable] = true;
+                }
+
+                boolean isSubset = true;
+                for (int variable : candidates.get(i)) {
+                    isSubset = isSubset && inClique[variable];
+                }
+
+                for (int variable : other) {
+                    inClique[variable] = false;
+                }
+
+                // equal cliques - keep the first
+                isMaximal = !isSubset || (other.length == candidates.get(i).length && j > i);
+            }
+
+            if (isMaximal) {
+                cliquesList.add(candidates.get(i));
+            }
+        }
+
+        this.cliques = cliquesList.toArray(new int[0][]);
+
+        this.cliquesLengths = new int[this.cliques.length];
+        for (int i = 0; i < this.cliques.length; i++) {
+            this.cliquesLengths[i] = 1;
+            for (int variable : this.cliques[i]) {
+                this.cliquesLengths[i] *= network.variablesLengths[variable];
+            }
+        }
+
+        // the tree - maximum spanning tree by the separators sizes (Prim)
+        this.parentClique = new int[this.cliques.length];
+        this.order = new int[this.cliques.length];
+        connectCliques();
+
+        this.separators = new int[this.cliques.length][];
+        this.separatorMaps = new int[this.cliques.length][];
+        this.parentSeparatorMaps = new int[this.cliques.length][];
+        for (int clique = 0; clique < this.cliques.length; clique++) {
+            int parent = this.parentClique[clique];
+            if (parent == -1) {
+                continue;
+            }
+
+            this.separators[clique] = intersection(this.cliques[clique], this.cliques[parent]);
+            this.separatorMaps[clique] = createIndexMap(network, this.cliques[clique], this.separators[clique]);
+            this.parentSeparatorMaps[clique] = createIndexMap(network, this.cliques[parent], this.separators[clique]);
+        }
+
+        // assign every CPT to a clique that contains the CPT variable and its parents
+        List<List<Integer>> assigned = new ArrayList<>(this.cliques.length);
+        for (int clique = 0; clique < this.cliques.length; clique++) {
+            assigned.add(new ArrayList<>());
+        }
+
+        for (int variable = 0; variable < variablesLength; variable++) {
+            int[] family = cptVariables(variable);
+
+            int clique = 0;
+            while (intersection(this.cliques[clique], family).length != family.length) {
+                clique++;
+            }
+
+            assigned.get(clique).add(variable);
+        }
+
+        this.assignedCPTs = new int[this.cliques.length][];
+        this.assignedCPTsMaps = new int[this.cliques.length][][];
+        for (int clique = 0; clique < this.cliques.length; clique++) {
+            this.assignedCPTs[clique] = assigned.get(clique).stream().mapToInt(i -> i).toArray();
+            this.assignedCPTsMaps[clique] = new int[this.assignedCPTs[clique].length][];
+
+            for (int i = 0; i < this.assignedCPTs[clique].length; i++) {
+                int[] family = cptVariables(this.assignedCPTs[clique][i]);
+                this.assignedCPTsMaps[clique][i] = createIndexMap(network, this.cliques[clique], family);
+            }
+        }
+
+        // the smallest clique of every variable
+        this.variableClique = new int[variablesLength];
+        this.variableMaps = new int[variablesLength][];
+        Arrays.fill(this.variableClique, -1);
+        for (int clique = 0; clique < this.cliques.length; clique++) {
+            for (int variable : this.cliques[clique]) {
+                if (this.variableClique[variable] == -1 || this.cliquesLengths[clique] < this.cliquesLengths[this.variableClique[variable]]) {
+                    this.variableClique[variable] = clique;
+                }
+            }
+        }
+
+        for (int variable = 0; variable < variablesLength; variable++) {
+            this.variableMaps[variable] = createIndexMap(network, this.cliques[this.variableClique[variable]], new int[]{variable});
+        }
+    }
+
+    /**
+     * the variables of the CPT of variable, in the order of the CPT table
+     *
+     * @param variable the variable
+     * @return the variable and then its parents
+     */
+    private int[] cptVariables(int variable) {
+        int[] parents = this.network.parents[variable];
+        int[] family = new int[1 + parents.length];
+        family[0] = variable;
+        System.arraycopy(parents, 0, family, 1, parents.length);
+
+        return family;
+    }
+
+    /**
+     * intersection of groups
+     *
+     * @param groupA group A
+     * @param groupB group B
+     * @return the variables of group A that in group B, by the order of group A
+     */
+    private static int[] intersection(int[] groupA, int[] groupB) {
+        int[] result = new int[Math.min(groupA.length, groupB.length)];
+        int length = 0;
+
+        for (int a : groupA) {
+            for (int b : groupB) {
+                if (a == b) {
+                    result[length] = a;
+                    length++;
+                    break;
+                }
+            }
+        }
+
+        return Arrays.copyOf(result, length);
+    }
+
+    /**
+     * triangulate the moral graph by eliminating the variables with min-fill (ties by min-weight)
+     *
+     * @param graph the moral graph (adjacency bitsets), changed to the triangulated graph
+     * @return the cliques created by the elimination, by the elimination order
+     */
+    private List<int[]> triangulate(long[][] graph) {
+        int variablesLength = graph.length;
+        int words = Bitsets.words(variablesLength);
+        long[] remaining = new long[words];
+        for (int variable = 0; variable < variablesLength; variable++) {
+            Bitsets.set(remaining, variable);
+        }
+
+        List<int[]> cliques = new ArrayList<>(variablesLength);
+        long[] neighbors = new long[words];
+
+        for (int step = 0; step < variablesLength; step++) {
+            // choose the variable
+            int chosen = -1;
+            int minFill = 0;
+            long minWeight = 0;
+
+            for (int variable = Bitsets.next(remaining, 0); variable != -1; variable = Bitsets.next(remaining, variable + 1)) {
+                for (int w = 0; w < words; w++) {
+                    neighbors[w] = graph[variable][w] & remaining[w];
+                }
+
+                // the fill - the pairs of neighbors that not connected (each pair counted twice)
+                long weight = this.network.variablesLengths[variable];
+                int fill = 0;
+                for (int neighbor = Bitsets.next(neighbors, 0); neighbor != -1; neighbor = Bitsets.next(neighbors, neighbor + 1)) {
+                    weight *= this.network.variablesLengths[neighbor];
+
+                    for (int w = 0; w < words; w++) {
+                        fill += Long.bitCount(neighbors[w] & ~graph[neighbor][w]);
+                    }
+                    fill--; // the neighbor itself
+                }
+                fill /= 2;
+
+                if (chosen == -1 || fill < minFill || (fill == minFill && weight < minWeight)) {
+                    chosen = variable;
+                    minFill = fill;
+                    minWeight = weight;
+                }
+            }
+
+            // eliminate the variable - connect its neighbors
+            for (int w = 0; w < words; w++) {
+                neighbors[w] = graph[chosen][w] & remaining[w];
+            }
+
+            int[] clique = new int[1 + Bitsets.count(neighbors)];
+            clique[0] = chosen;
+            int cliqueLength = 1;
+
+            for (int neighbor = Bitsets.next(neighbors, 0); neighbor != -1; neighbor = Bitsets.next(neighbors, neighbor + 1)) {
+                Bitsets.or(graph[neighbor], neighbors);
+                Bitsets.clear(graph[neighbor], neighbor);
+
+                clique[cliqueLength] = neighbor;
+                cliqueLength++;
+            }
+
+            cliques.add(clique);
+
+            Bitsets.clear(remaining, chosen);
+        }
+
+        return cliques;
+    }
+
+    /**
+     * connect the cliques to a tree by maximum spanning tree of the separators sizes (Prim),
+     * and fill parentClique and order
+     */
+    private void connectCliques() {
+        int cliquesLength = this.cliques.length;
+        boolean[] inTree = new boolean[cliquesLength];
+        int[] bestWeight = new int[cliquesLength];
+        int[] bestParent = new int[cliquesLength];
+        Arrays.fill(bestWeight, -1);
+
+        bestWeight[0] = 0;
+        bestParent[0] = -1;
+
+        for (int step = 0; step < cliquesLength; step++) {
+            int clique = -1;
+            for (int i = 0; i < cliquesLength; i++) {
+                if (!inTree[i] && (clique == -1 || bestWeight[i] > bestWeight[clique])) {
+                    clique = i;
+                }
+            }
+
+            inTree[clique] = true;
+            this.parentClique[clique] = bestParent[clique];
+            this.order[step] = clique;
+
+            for (int i = 0; i < cliquesLength; i++) {
+                if (!inTree[i]) {
+                    int weight = intersection(this.cliques[clique], this.cliques[i]).length;
+                    if (weight > bestWeight[i]) {
+                        bestWeight[i] = weight;
+                        bestParent[i] = clique;
+                    }
+                }
+            }
+        }
+    }
+
+    // inference
+
+    /**
+     * create the cliques potentials from the CPTs and the evidences
+     *
+     * @param evidences the value of every variable, -1 for not evidence
+     * @param results counters of the operations
+     * @return potential of each clique
+     */
+    double[][] createPotentials(int[] evidences, QueryResults results) {
+        double[][] potentials = new double[this.cliques.length][];
+
+        for (int clique = 0; clique < this.cliques.length; clique++) {
+            double[] potential = new double[this.cliquesLengths[clique]];
+            int[] assigned = this.assignedCPTs[clique];
+
+            if (assigned.length == 0) {
+                Arrays.fill(potential, 1);
+            } else {
+                // the first CPT copied, the others multiplied
+                double[] cpt = this.network.CPTs[assigned[0]];
+                int[] map = this.assignedCPTsMaps[clique][0];
+                for (int i = 0; i < potential.length; i++) {
+                    potential[i] = cpt[map[i]];
+                }
+
+                for (int k = 1; k < assigned.length; k++) {
+                    cpt = this.network.CPTs[assigned[k]];
+                    map = this.assignedCPTsMaps[clique][k];
+                    for (int i = 0; i < potential.length; i++) {
+                        potential[i] *= cpt[map[i]];
+                    }
+                    results.multiplies += potential.length;
+                }
+            }
+
+            potentials[clique] = potential;
+        }
+
+        // absorb the evidences
+        for (int variable = 0; variable < evidences.length; variable++) {
+            if (evidences[variable] != -1) {
+                absorbEvidence(potentials, variable, evidences[variable]);
+            }
+        }
+
+        return potentials;
+    }
+
+    /**
+     * absorb evidence to the clique of the variable, by zeroing the other values of the variable
+     *
+     * @param potentials the cliques potentials
+     * @param variable the evidence variable
+     * @param value the evidence value
+     */
+    void absorbEvidence(double[][] potentials, int variable, int value) {
+        double[] potential = potentials[this.variableClique[variable]];
+        int[] map = this.variableMaps[variable];
+
+        for (int i = 0; i < potential.length; i++) {
+            if (map[i] != value) {
+                potential[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * marginalize the potential of clique to the separator with its parent
+     *
+     * @param potential the clique potential
+     * @param clique the clique
+     * @param map map from the potential indexes to the separator indexes
+     * @param results counters of the operations
+     * @return the separator table
+     */
+    private double[] marginalize(double[] potential, int clique, int[] map, QueryResults results) {
+        double[] message = new double[this.separatorLength(clique)];
+
+        for (int i = 0; i < potential.length; i++) {
+            message[map[i]] += potential[i];
+        }
+        results.additions += potential.length - message.length;
+
+        return message;
+    }
+
+    /**
+     * get the table length of the separator between clique and its parent
+     *
+     * @param clique the clique
+     * @return the separator length
+     */
+    int separatorLength(int clique) {
+        int length = 1;
+        for (int variable : this.separators[clique]) {
+            length *= this.network.variablesLengths[variable];
+        }
+
+        return length;
+    }
+
+    /**
+     * multiply the potential by the ratio of the new and the old separators
+     *
+     * @param potential the potential
+     * @param map map from the potential indexes to the separators indexes
+     * @param message the new separator
+     * @param old the old separator, null for ones
+     * @param results counters of the operations
+     */
+    private static void absorbMessage(double[] potential, int[] map, double[] message, double[] old, QueryResults results) {
+        if (old != null) {
+            for (int i = 0; i < message.length; i++) {
+                message[i] = (old[i] == 0) ? 0 : message[i] / old[i];
+            }
+        }
+
+        for (int i = 0; i < potential.length; i++) {
+            potential[i] *= message[map[i]];
+        }
+        results.multiplies += potential.length;
+    }
+
+    /**
+     * calibrate the potentials - collect messages to the root and distribute them back to the leaves
+     *
+     * @param potentials the cliques potentials
+     * @param results counters of the operations
+     * @return the separators tables, by the clique under the separator
+     */
+    double[][] calibrate(double[][] potentials, QueryResults results) {
+        double[][] separatorsTables = new double[this.cliques.length][];
+
+        // collect - from the leaves to the root
+        for (int step = this.order.length - 1; step > 0; step--) {
+            int clique = this.order[step];
+            int parent = this.parentClique[clique];
+
+            double[] message = marginalize(potentials[clique], clique, this.separatorMaps[clique], results);
+            separatorsTables[clique] = message.clone();
+            absorbMessage(potentials[parent], this.parentSeparatorMaps[clique], message, null, results);
+        }
+
+        // distribute - from the root to the leaves
+        for (int step = 1; step < this.order.length; step++) {
+            int clique = this.order[step];
+            distribute(potentials, separatorsTables, clique, results);
+        }
+
+        return separatorsTables;
+    }
+
+    /**
+     * pass message from the parent of clique to the clique
+     *
+     * @param potentials the cliques potentials
+     * @param separatorsTables the separators tables
+     * @param clique the clique
+     * @param results counters of the operations
+     */
+    void distribute(double[][] potentials, double[][] separatorsTables, int clique, QueryResults results) {
+        int parent = this.parentClique[clique];
+
+        double[] message = marginalize(potentials[parent], clique, this.parentSeparatorMaps[clique], results);
+        double[] old = separatorsTables[clique];
+        separatorsTables[clique] = message.clone();
+        absorbMessage(potentials[clique], this.separatorMaps[clique], message, old, results);
+    }
+
+    /**
+     * get the normalized distribution of variable from calibrated potentials
+     *
+     * @param potentials the calibrated cliques potentials
+     * @param variable the variable
+     * @param results counters of the operations
+     * @return the probabilities of the variable values
+     */
+    double[] marginal(double[][] potentials, int variable, QueryResults results) {
+        double[] potential = potentials[this.variableClique[variable]];
+        int[] map = this.variableMaps[variable];
+        double[] probabilities = new double[this.network.variablesLengths[variable]];
+
+        for (int i = 0; i < potential.length; i++) {
+            probabilities[map[i]] += potential[i];
+        }
+        results.additions += potential.length - probabilities.length;
+
+        double sum = probabilities[0];
+        for (int i = 1; i < probabilities.length; i++) {
+            sum += probabilities[i];
+            results.additions++;
+        }
+
+        for (int i = 0; i < probabilities.length; i++) {
+            probabilities[i] /= sum;
+        }
+
+        return probabilities;
+    }
+
+    /**
+     * call query with the Junction Tree
+     *
+     * @param query the query
+     */
+    public void callQuery(Query query) {
+        query.results.probability = distribution(query)[query.queryValue];
+    }
+
+    /**
+     * get the distribution of the query variable with the Junction Tree
+     *
+     * @param query the query
+     * @return the probabilities of the query variable values
+     */
+    public double[] distribution(Query query) {
+        int[] evidences = new int[this.network.variableClasses.length];
+        Arrays.fill(evidences, -1);
+        for (int i = 0; i < query.evidencesVariables.length; i++) {
+            evidences[query.evidencesVariables[i]] = query.evidencesValues[i];
+        }
+
+        double[][] potentials = createPotentials(evidences, query.results);
+        calibrate(potentials, query.results);
+
+        return marginal(potentials, query.queryVariable, query.results);
+    }
+
+    // getters
+
+    /**
+     * get count of the cliques
+     *
+     * @return count of the cliques
+     */
+    public int getCliquesLength() {
+        return this.cliques.length;
+    }
+}
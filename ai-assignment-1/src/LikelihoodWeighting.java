@@ -0,0 +1,100 @@
+import java.util.SplittableRandom;
+
+/**
+ * Likelihood weighting (query type 5).
+ * Every sample takes the values of the non evidence variables from their CPTs by the topological order,
+ * and is weighted by the probabilities of the evidences given their sampled parents.
+ * The estimate is the weighted part of the samples with the query value,
+ * and its standard error is of ratio estimator (by the delta method).
+ */
+public class LikelihoodWeighting extends Sampler {
+    /**
+     * the index of the sum of the weights in the statistics
+     */
+    private static final int WEIGHTS = 2;
+
+    /**
+     * the index of the sum of the weights of the samples with the query value
+     */
+    private static final int QUERY_WEIGHTS = 3;
+
+    /**
+     * the index of the sum of the squared weights
+     */
+    private static final int SQUARED_WEIGHTS = 4;
+
+    /**
+     * the index of the sum of the squared weights of the samples with the query value
+     */
+    private static final int QUERY_SQUARED_WEIGHTS = 5;
+
+    /**
+     * prepare likelihood weighting of query
+     *
+     * @param network the network
+     * @param query the query
+     */
+    public LikelihoodWeighting(BNetwork network, Query query) {
+        super(network, query);
+    }
+
+    @Override
+    protected int statsLength() {
+        return 6;
+    }
+
+    @Override
+    protected void sampleChunk(SplittableRandom random, int length, double[] stats) {
+        int[] values = this.initValues.clone();
+        int queryVariable = this.query.queryVariable;
+        int queryValue = this.query.queryValue;
+
+        long additions = 0;
+        long multiplies = 0;
+
+        for (int sample = 0; sample < length; sample++) {
+            double weight = 1;
+
+            for (int i = 0; i < this.net.length; i++) {
+                int variable = this.net[i];
+                double[] cpt = this.network.CPTs[variable];
+                int row = rowIndex(i, values);
+
+                if (this.isEvidence[i]) {
+                    weight *= cpt[row + values[variable]];
+                    multiplies++;
+                } else {
+                    values[variable] = sampleRow(random, cpt, row, this.network.variablesLengths[variable]);
+                }
+            }
+
+            stats[WEIGHTS] += weight;
+            stats[SQUARED_WEIGHTS] += weight * weight;
+            additions++;
+
+            if (values[queryVariable] == queryValue) {
+                stats[QUERY_WEIGHTS] += weight;
+                stats[QUERY_SQUARED_WEIGHTS] += weight * weight;
+                additions++;
+            }
+        }
+
+        stats[ADDITIONS] += additions;
+        stats[MULTIPLIES] += multiplies;
+    }
+
+    @Override
+    protected double estimate(double[] stats) {
+        return stats[QUERY_WEIGHTS] / stats[WEIGHTS];
+    }
+
+    @Override
+    protected double standardError(double[] stats) {
+        // sum of w^2 (q - p)^2 over the samples, divided by (sum of w)^2
+        double p = estimate(stats);
+        double variance = (stats[QUERY_SQUARED_WEIGHTS] * (1 - 2 * p) + p * p * stats[SQUARED_WEIGHTS])
+                / (stats[WEIGHTS] * stats[WEIGHTS]);
+
+        return Math.sqrt(Math.max(variance, 0));
+    }
+}
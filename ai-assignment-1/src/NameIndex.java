@@ -0,0 +1,152 @@
+/**
+ * Open addressing hash index from names to keys.
+ * Built once (for the variables names of network or the values names of variable),
+ * the keys are the indexes of the names in the names array.
+ */
+public class NameIndex {
+    // Members
+    /**
+     * the names, by their keys
+     */
+    private final String[] names;
+
+    /**
+     * the hash table, the key + 1 of the name in each slot, 0 for empty slot
+     */
+    private final int[] slots;
+
+    /**
+     * the hashes of the names, by their keys
+     */
+    private final int[] hashes;
+
+    /**
+     * mask for the slots indexes (the slots length is power of 2)
+     */
+    private final int mask;
+
+    /**
+     * build index of names
+     *
+     * @param names the names, the key of each name is its index
+     */
+    public NameIndex(String[] names) {
+        this.names = names;
+        this.hashes = new int[names.length];
+
+        // at most half of the slots are used
+        int length = 2;
+        while (length < names.length * 2) {
+            length *= 2;
+        }
+
+        this.slots = new int[length];
+        this.mask = length - 1;
+
+        for (int key = 0; key < names.length; key++) {
+            this.hashes[key] = mix(names[key].hashCode());
+
+            int slot = this.hashes[key] & this.mask;
+            while (this.slots[slot] != 0) {
+                // keep the first key of duplicated names, like linear scan
+                if (this.hashes[this.slots[slot] - 1] == this.hashes[key] && names[this.slots[slot] - 1].equals(names[key])) {
+                    break;
+                }
+
+                slot = (slot + 1) & this.mask;
+            }
+
+            if (this.slots[slot] == 0) {
+                this.slots[slot] = key + 1;
+            }
+        }
+    }
+
+    /**
+     * spread the bits of String hash, so close hashes get far slots
+     *
+     * @param hash the String hash
+     * @return the mixed hash
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    // getters
+
+    /**
+     * get key of name
+     *
+     * @param name the name
+     * @return the key of the name, -1 if the name not exists
+     */
+    public int getKey(String name) {
+        int hash = mix(name.hashCode());
+        int slot = hash & this.mask;
+
+        while (this.slots[slot] != 0) {
+            int key = this.slots[slot] - 1;
+            if (this.hashes[key] == hash && this.names[key].equals(name)) {
+                return key;
+            }
+
+            slot = (slot + 1) & this.mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * get key of name in range of chars, without creating String of the name
+     *
+     * @param chars the chars, example: query line
+     * @param from the first index of the name
+     * @param to the end index of the name (exclusive)
+     * @return the key of the name, -1 if the name not exists
+     */
+    public int getKey(CharSequence chars, int from, int to) {
+        // the same hash of String.hashCode
+        int stringHash = 0;
+        for (int i = from; i < to; i++) {
+            stringHash = 31 * stringHash + chars.charAt(i);
+        }
+
+        int hash = mix(stringHash);
+        int slot = hash & this.mask;
+
+        while (this.slots[slot] != 0) {
+            int key = this.slots[slot] - 1;
+            if (this.hashes[key] == hash && regionEquals(this.names[key], chars, from, to)) {
+                return key;
+            }
+
+            slot = (slot + 1) & this.mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * check if name equals to range of chars
+     *
+     * @param name the name
+     * @param chars the chars
+     * @param from the first index of the range
+     * @param to the end index of the range (exclusive)
+     * @return True if the name equals to the range
+     */
+    private static boolean regionEquals(String name, CharSequence chars, int from, int to) {
+        if (name.length() != to - from) {
+            return false;
+        }
+
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != chars.charAt(from + i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,395 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Generator of synthetic Bayesian Networks (in the XML format of BNetwork) and of queries files for them,
+ * for measuring how the algorithms scale.
+ * The structure is random partial k-tree: every variable joins random k-clique of the previous variables, and its
+ * parents are chosen from this clique. So the moral graph is subgraph of k-tree, and its treewidth is at most k.
+ * The queries are random, with controlled count of evidences and rate of repeated queries.
+ *
+ * Usage: java NetworkGenerator [options] network.xml [queries.txt]
+ */
+public class NetworkGenerator {
+    // Members - the network
+    /**
+     * count of the variables
+     */
+    public int variables = 1000;
+
+    /**
+     * max count of parents of every variable
+     */
+    public int inDegree = 3;
+
+    /**
+     * min count of outcomes of every variable
+     */
+    public int minArity = 2;
+
+    /**
+     * max count of outcomes of every variable
+     */
+    public int maxArity = 3;
+
+    /**
+     * the target treewidth (k of the k-tree), at least the in-degree
+     */
+    public int treewidth = 8;
+
+    /**
+     * the part of the CPTs probabilities that are 0 (every row keeps at least one positive probability)
+     */
+    public double sparsity = 0;
+
+    // Members - the queries
+    /**
+     * count of the queries
+     */
+    public long queries = 1000;
+
+    /**
+     * min count of evidences of every query
+     */
+    public int minEvidences = 1;
+
+    /**
+     * max count of evidences of every query
+     */
+    public int maxEvidences = 4;
+
+    /**
+     * the part of the queries that repeat previous query
+     */
+    public double repetitionRate = 0;
+
+    /**
+     * the algorithms types of the queries, chosen randomly
+     */
+    public int[] types = {1, 2, 3};
+
+    /**
+     * the seed of the random generator
+     */
+    public long seed = 1;
+
+    /**
+     * the precision of the CPTs probabilities
+     */
+    private static final long MILLION = 1000000;
+
+    /**
+     * count of the last distinct queries that can be repeated
+     */
+    private static final int REPEATABLE_QUERIES = 1 << 16;
+
+    /**
+     * the parents of every variable, created by writeNetwork
+     */
+    private int[][] parents = null;
+
+    /**
+     * count of the outcomes of every variable, created by writeNetwork
+     */
+    private int[] arities = null;
+
+    /**
+     * create the structure of the network - the arities and the parents
+     *
+     * @param random the random generator
+     */
+    private void createStructure(Random random) {
+        int k = Math.max(1, Math.max(this.treewidth, this.inDegree));
+
+        this.arities = new int[this.variables];
+        this.parents = new int[this.variables][];
+
+        // the cliques of the k-tree, every clique is k + 1 variables (or less, of the first variables)
+        List<int[]> cliques = new ArrayList<>();
+        int[] first = new int[Math.min(k + 1, this.variables)];
+
+        for (int variable = 0; variable < this.variables; variable++) {
+            this.arities[variable] = this.minArity + random.nextInt(this.maxArity - this.minArity + 1);
+
+            // the candidates for parents - the first clique, or k variables of random clique
+            int[] candidates;
+            if (variable < first.length) {
+                candidates = Arrays.copyOf(first, variable);
+                first[variable] = variable;
+                if (variable == first.length - 1) {
+                    cliques.add(first);
+                }
+            } else {
+                int[] clique = cliques.get(random.nextInt(cliques.size()));
+                int skip = random.nextInt(clique.length);
+
+                candidates = new int[clique.length - 1];
+                int[] newClique = new int[clique.length];
+                int length = 0;
+                for (int i = 0; i < clique.length; i++) {
+                    if (i != skip) {
+                        candidates[length] = clique[i];
+                        newClique[length] = clique[i];
+                        length++;
+                    }
+                }
+                newClique[length] = variable;
+                cliques.add(newClique);
+            }
+
+            // random parents from the candidates
+            int parentsLength = Math.min(candidates.length, random.nextInt(this.inDegree + 1));
+            for (int i = 0; i < parentsLength; i++) {
+                int j = i + random.nextInt(candidates.length - i);
+                int swap = candidates[i];
+                candidates[i] = candidates[j];
+                candidates[j] = swap;
+            }
+
+            this.parents[variable] = Arrays.copyOf(candidates, parentsLength);
+        }
+    }
+
+    /**
+     * write CPT row - random probabilities, with zeros by the sparsity, rounded to 6 digits with sum 1
+     *
+     * @param writer the writer
+     * @param arity count of the probabilities
+     * @param random the random generator
+     * @param row buffer for the probabilities
+     * @param first True for the first row of the table (without separator before it)
+     */
+    private void writeRow(Writer writer, int arity, Random random, double[] row, boolean first) throws IOException {
+        int positive = random.nextInt(arity);
+        double sum = 0;
+        for (int i = 0; i < arity; i++) {
+            row[i] = (i != positive && random.nextDouble() < this.sparsity) ? 0 : 0.05 + random.nextDouble();
+            sum += row[i];
+        }
+
+        // round to millionths, the biggest probability takes the rest
+        int biggest = 0;
+        long rest = MILLION;
+        for (int i = 0; i < arity; i++) {
+            row[i] = Math.round(row[i] / sum * MILLION);
+            biggest = (row[i] > row[biggest]) ? i : biggest;
+            rest -= (long) row[i];
+        }
+        row[biggest] += rest;
+
+        for (int i = 0; i < arity; i++) {
+            if (i > 0 || !first) {
+                writer.write(' ');
+            }
+            writeMillionths(writer, (long) row[i]);
+        }
+    }
+
+    /**
+     * write probability in decimal notation (without exponent)
+     *
+     * @param writer the writer
+     * @param millionths the probability in millionths
+     */
+    private static void writeMillionths(Writer writer, long millionths) throws IOException {
+        if (millionths == MILLION) {
+            writer.write('1');
+            return;
+        }
+
+        String digits = Long.toString(MILLION + millionths);
+        int end = digits.length();
+        while (end > 2 && digits.charAt(end - 1) == '0') {
+            end--;
+        }
+
+        writer.write("0.");
+        writer.write(digits, 1, end - 1);
+    }
+
+    /**
+     * generate network and write it to XML file
+     *
+     * @param filepath path of the XML file
+     */
+    public void writeNetwork(String filepath) throws IOException {
+        Random random = new Random(this.seed);
+        createStructure(random);
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filepath), StandardCharsets.UTF_8))) {
+            writer.write("<NETWORK>\n");
+
+            for (int variable = 0; variable < this.variables; variable++) {
+                writer.write("<VARIABLE>\n\t<NAME>V" + variable + "</NAME>\n");
+                for (int value = 0; value < this.arities[variable]; value++) {
+                    writer.write("\t<OUTCOME>v" + value + "</OUTCOME>\n");
+                }
+                writer.write("</VARIABLE>\n\n");
+            }
+
+            double[] row = new double[this.maxArity];
+            for (int variable = 0; variable < this.variables; variable++) {
+                writer.write("<DEFINITION>\n\t<FOR>V" + variable + "</FOR>\n");
+
+                long rows = 1;
+                for (int parent : this.parents[variable]) {
+                    writer.write("\t<GIVEN>V" + parent + "</GIVEN>\n");
+                    rows *= this.arities[parent];
+                }
+
+                writer.write("\t<TABLE>");
+                for (long r = 0; r < rows; r++) {
+                    writeRow(writer, this.arities[variable], random, row, r == 0);
+                }
+                writer.write("</TABLE>\n</DEFINITION>\n\n");
+            }
+
+            writer.write("</NETWORK>\n");
+        }
+    }
+
+    /**
+     * generate queries of the network (after writeNetwork) and write them to queries file
+     *
+     * @param filepath path of the queries file
+     * @param networkPath the path of the network, for the first line of the file
+     */
+    public void writeQueries(String filepath, String networkPath) throws IOException {
+        Random random = new Random(this.seed + 1);
+        String[] repeatable = new String[REPEATABLE_QUERIES];
+        long distinct = 0;
+
+        int[] variables = new int[this.variables];
+        for (int variable = 0; variable < this.variables; variable++) {
+            variables[variable] = variable;
+        }
+
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filepath), StandardCharsets.UTF_8))) {
+            writer.write(networkPath);
+            writer.write('\n');
+
+            StringBuilder builder = new StringBuilder();
+            for (long q = 0; q < this.queries; q++) {
+                if (distinct > 0 && random.nextDouble() < this.repetitionRate) {
+                    int index = (int) (Math.abs(random.nextLong()) % Math.min(distinct, REPEATABLE_QUERIES));
+                    writer.write(repeatable[index]);
+                    writer.write('\n');
+                    continue;
+                }
+
+                // random distinct variables - the query variable and the evidences
+                int evidences = Math.min(this.variables - 1,
+                        this.minEvidences + random.nextInt(this.maxEvidences - this.minEvidences + 1));
+                for (int i = 0; i <= evidences; i++) {
+                    int j = i + random.nextInt(this.variables - i);
+                    int swap = variables[i];
+                    variables[i] = variables[j];
+                    variables[j] = swap;
+                }
+
+                builder.setLength(0);
+                builder.append("P(V").append(variables[0]).append("=v").append(random.nextInt(this.arities[variables[0]]));
+                for (int i = 1; i <= evidences; i++) {
+                    builder.append(i == 1 ? '|' : ',');
+                    builder.append('V').append(variables[i]).append("=v").append(random.nextInt(this.arities[variables[i]]));
+                }
+                builder.append("),").append(this.types[random.nextInt(this.types.length)]);
+
+                String query = builder.toString();
+                repeatable[(int) (distinct % REPEATABLE_QUERIES)] = query;
+                distinct++;
+
+                writer.write(query);
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * parse range option
+     *
+     * @param value the value, example: 2-4 or 3
+     * @return the min and the max
+     */
+    private static int[] parseRange(String value) {
+        String[] parts = value.split("-");
+        int min = Integer.parseInt(parts[0]);
+        int max = (parts.length > 1) ? Integer.parseInt(parts[1]) : min;
+
+        return new int[]{min, max};
+    }
+
+    /**
+     * Entry Point of the generator
+     *
+     * @param args "--variables N", "--in-degree N", "--arity MIN-MAX", "--treewidth N", "--sparsity P",
+     *             "--queries N", "--evidences MIN-MAX", "--repetition P", "--types 1,2,3", "--seed N",
+     *             and the paths: network.xml [queries.txt] (the default queries file is network_input.txt)
+     */
+    public static void main(String[] args) throws IOException {
+        NetworkGenerator generator = new NetworkGenerator();
+        List<String> paths = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String value = (i + 1 < args.length) ? args[i + 1] : "";
+            switch (args[i]) {
+                case "--variables":
+                    generator.variables = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--in-degree":
+                    generator.inDegree = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--arity":
+                    generator.minArity = parseRange(value)[0];
+                    generator.maxArity = parseRange(value)[1];
+                    i++;
+                    break;
+                case "--treewidth":
+                    generator.treewidth = Integer.parseInt(value);
+                    i++;
+                    break;
+                case "--sparsity":
+                    generator.sparsity = Double.parseDouble(value);
+                    i++;
+                    break;
+                case "--queries":
+                    generator.queries = Long.parseLong(value);
+                    i++;
+                    break;
+                case "--evidences":
+                    generator.minEvidences = parseRange(value)[0];
+                    generator.maxEvidences = parseRange(value)[1];
+                    i++;
+                    break;
+                case "--repetition":
+                    generator.repetitionRate = Double.parseDouble(value);
+                    i++;
+                    break;
+                case "--types":
+                    generator.types = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+                    i++;
+                    break;
+                case "--seed":
+                    generator.seed = Long.parseLong(value);
+                    i++;
+                    break;
+                default:
+                    paths.add(args[i]);
+            }
+        }
+
+        if (paths.isEmpty()) {
+            System.out.println("Usage: java NetworkGenerator [options] network.xml [queries.txt]");
+            return;
+        }
+
+        String networkPath = paths.get(0);
+        String queriesPath = (paths.size() > 1) ? paths.get(1) : networkPath.replace(".xml", "_input.txt");
+
+        generator.writeNetwork(networkPath);
+        generator.writeQueries(queriesPath, new File(networkPath).getName());
+    }
+}
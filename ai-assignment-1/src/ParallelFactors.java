@@ -0,0 +1,109 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Running factor operation over the probabilities of big factor in parallel.
+ * The probabilities indexes are split to chunks on the common ForkJoinPool,
+ * every chunk counts its operations in its own counters, and the counters merged at the end.
+ * The chunks don't depend on the count of the threads, so the results are the same on any count of threads.
+ */
+public class ParallelFactors {
+    /**
+     * operation over range of the probabilities indexes of factor
+     */
+    @FunctionalInterface
+    interface RangeKernel {
+        /**
+         * run the operation over range of indexes
+         *
+         * @param from the first index
+         * @param to the end index (exclusive)
+         * @param counters counters of the operations of the range
+         */
+        void run(int from, int to, QueryResults counters);
+    }
+
+    /**
+     * task of range of indexes, split to halves until the range is single chunk
+     */
+    @SuppressWarnings("serial")
+    private static final class RangeTask extends RecursiveTask<QueryResults> {
+        private final RangeKernel kernel;
+        private final int from;
+        private final int to;
+
+        private RangeTask(RangeKernel kernel, int from, int to) {
+            this.kernel = kernel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected QueryResults compute() {
+            if (this.to - this.from <= CHUNK_LENGTH) {
+                QueryResults counters = new QueryResults();
+                this.kernel.run(this.from, this.to, counters);
+
+                return counters;
+            }
+
+            // split by whole chunks
+            int chunks = (this.to - this.from + CHUNK_LENGTH - 1) / CHUNK_LENGTH;
+            int middle = this.from + (chunks / 2) * CHUNK_LENGTH;
+
+            RangeTask left = new RangeTask(this.kernel, this.from, middle);
+            RangeTask right = new RangeTask(this.kernel, middle, this.to);
+            left.fork();
+            QueryResults counters = right.compute();
+            QueryResults leftCounters = left.join();
+
+            counters.additions += leftCounters.additions;
+            counters.multiplies += leftCounters.multiplies;
+
+            return counters;
+        }
+    }
+
+    /**
+     * the length of chunk of indexes
+     */
+    static final int CHUNK_LENGTH = 1 << 14;
+
+    /**
+     * min length of factor for running in parallel
+     */
+    private static int threshold = 1 << 17;
+
+    /**
+     * set the min length of factor for running in parallel
+     *
+     * @param threshold the min length, Integer.MAX_VALUE for never running in parallel
+     */
+    public static void setThreshold(int threshold) {
+        ParallelFactors.threshold = threshold;
+    }
+
+    /**
+     * check if operation over factor (or over enumeration) should run in parallel
+     *
+     * @param length the length of the factor (or count of the assignments)
+     * @return True if the factor is big enough and there are threads for it
+     */
+    static boolean isParallel(long length) {
+        return length >= threshold && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /**
+     * run operation over all the indexes of factor in parallel
+     *
+     * @param length the length of the factor
+     * @param results the results for adding the counters of all the chunks
+     * @param kernel the operation
+     */
+    static void run(int length, QueryResults results, RangeKernel kernel) {
+        QueryResults counters = ForkJoinPool.commonPool().invoke(new RangeTask(kernel, 0, length));
+
+        results.additions += counters.additions;
+        results.multiplies += counters.multiplies;
+    }
+}
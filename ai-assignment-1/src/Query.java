@@ -2,17 +2,32 @@
  * A query to find probability in Bayesian Network
  */
 public class Query {
+    /**
+     * the value of query variable of any value ("*"), not -1 that is the key of unknown name
+     */
+    public static final int ANY_VALUE = -2;
+
     // Members
     /**
-     * the query variable
+     * the query variable (the first of the query variables)
      */
     public int queryVariable;
 
     /**
-     * the value of the query variable
+     * the value of the query variable, 0 for any value
      */
     public int queryValue;
 
+    /**
+     * the query variables, more than one for joint query
+     */
+    public int[] queryVariables;
+
+    /**
+     * the values of the query variables, ANY_VALUE for any value ("*")
+     */
+    public int[] queryValues;
+
     /**
      * evidences variables
      */
@@ -33,41 +48,197 @@ public class Query {
      */
     public QueryResults results;
 
+    /**
+     * the convergence settings of the belief propagation (type 7)
+     */
+    public BeliefPropagation.Convergence convergence = BeliefPropagation.Convergence.DEFAULT;
+
     /**
      * convert from string
      *
      * @param network the network
-     * @param input query, example: P(B=T|J=T,M=T),1
+     * @param input query, example: P(B=T|J=T,M=T),1 or P(B=*|J=T),2 for the distribution of B,
+     *              or P(B=*,E=*|J=T),2 for the joint distribution of B and E
      */
     public Query(BNetwork network, String input) {
-        String[] parts = input.split("\\(")[1].split("\\),");
+        // the parts of the line, parsed by the chars (without splitting), the names are found in the chars
+        int open = input.indexOf('(') + 1;
+        int close = input.indexOf("),", open);
+        if (open == 0 || close == -1) {
+            throw new IllegalArgumentException("bad query: " + input);
+        }
 
-        String[] parametersPart = parts[0].split("\\|");
-        String[] queryParts = parametersPart[0].split("=");
+        int bar = input.indexOf('|', open);
+        if (bar == -1 || bar > close) {
+            bar = close;
+        }
 
-        this.queryVariable = network.getVariableKey(queryParts[0]);
-        this.queryValue = network.variableClasses[this.queryVariable].getValueKey(queryParts[1]);
+        // the query variables
+        int queriesLength = countParts(input, open, bar);
+        this.queryVariables = new int[queriesLength];
+        this.queryValues = new int[queriesLength];
 
-        if (parametersPart.length == 1) {
-            this.evidencesVariables = new int[0];
-            this.evidencesValues = new int[0];
-        } else {
+        int from = open;
+        for (int i = 0; i < queriesLength; i++) {
+            int to = indexOf(input, ',', from, bar);
+            int equals = indexOf(input, '=', from, to);
 
-            String[] evidencesParts = parametersPart[1].split(",");
+            this.queryVariables[i] = variableKey(network, input, from, equals);
+            this.queryValues[i] = (to - equals == 2 && input.charAt(equals + 1) == '*') ? ANY_VALUE
+                    : valueKey(network, this.queryVariables[i], input, equals + 1, to);
+            from = to + 1;
+        }
 
-            this.evidencesVariables = new int[evidencesParts.length];
-            this.evidencesValues = new int[evidencesParts.length];
+        this.queryVariable = this.queryVariables[0];
+        this.queryValue = Math.max(0, this.queryValues[0]);
 
-            for (int i = 0; i < evidencesParts.length; i++) {
-                String[] evidenceParts = evidencesParts[i].split("=");
+        // the evidences
+        int evidencesLength = (bar < close) ? countParts(input, bar + 1, close) : 0;
+        this.evidencesVariables = new int[evidencesLength];
+        this.evidencesValues = new int[evidencesLength];
 
-                this.evidencesVariables[i] = network.getVariableKey(evidenceParts[0]);
-                this.evidencesValues[i] = network.variableClasses[this.evidencesVariables[i]].getValueKey(evidenceParts[1]);
-            }
+        from = bar + 1;
+        for (int i = 0; i < evidencesLength; i++) {
+            int to = indexOf(input, ',', from, close);
+            int equals = indexOf(input, '=', from, to);
+
+            this.evidencesVariables[i] = variableKey(network, input, from, equals);
+            this.evidencesValues[i] = valueKey(network, this.evidencesVariables[i], input, equals + 1, to);
+            from = to + 1;
         }
 
-        this.type = Integer.parseInt(parts[1]);
+        this.type = parseType(input, close + 2);
 
         this.results = new QueryResults();
     }
+
+    /**
+     * find the key of variable name in range
+     *
+     * @param network the network
+     * @param input the query line
+     * @param from the first index of the name
+     * @param to the end index of the name (exclusive)
+     * @return the key of the variable
+     * @throws IllegalArgumentException the variable not exists
+     */
+    private static int variableKey(BNetwork network, String input, int from, int to) {
+        int variable = network.getVariableKey(input, from, to);
+        if (variable == -1) {
+            throw new IllegalArgumentException("unknown variable " + input.substring(from, to) + " in query: " + input);
+        }
+
+        return variable;
+    }
+
+    /**
+     * find the key of value name in range
+     *
+     * @param network the network
+     * @param variable the variable of the value
+     * @param input the query line
+     * @param from the first index of the name
+     * @param to the end index of the name (exclusive)
+     * @return the key of the value
+     * @throws IllegalArgumentException the value not exists
+     */
+    private static int valueKey(BNetwork network, int variable, String input, int from, int to) {
+        VariableClass variableClass = network.variableClasses[variable];
+        int value = variableClass.getValueKey(input, from, to);
+        if (value == -1) {
+            throw new IllegalArgumentException("unknown value " + variableClass.getName() + "=" + input.substring(from, to)
+                    + " in query: " + input);
+        }
+
+        return value;
+    }
+
+    /**
+     * count the comma separated parts of range
+     *
+     * @param input the query line
+     * @param from the first index of the range
+     * @param to the end index of the range (exclusive)
+     * @return count of the parts, 0 for empty range
+     */
+    private static int countParts(String input, int from, int to) {
+        if (from >= to) {
+            return 0;
+        }
+
+        int count = 1;
+        for (int i = from; i < to; i++) {
+            count += (input.charAt(i) == ',') ? 1 : 0;
+        }
+
+        return count;
+    }
+
+    /**
+     * find char in range
+     *
+     * @param input the query line
+     * @param c the char
+     * @param from the first index of the range
+     * @param to the end index of the range (exclusive)
+     * @return the index of the char, or the end of the range if it isn't in the range
+     */
+    private static int indexOf(String input, char c, int from, int to) {
+        int i = from;
+        while (i < to && input.charAt(i) != c) {
+            i++;
+        }
+
+        return i;
+    }
+
+    /**
+     * parse the type - the digits at the end of the line
+     *
+     * @param input the query line
+     * @param from the index of the type
+     * @return the type
+     */
+    private static int parseType(String input, int from) {
+        int type = 0;
+        for (int i = from; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c < '0' || c > '9' || i - from > 8) {
+                // not simple number - let parseInt parse it or report it
+                return Integer.parseInt(input.substring(from));
+            }
+            type = type * 10 + (c - '0');
+        }
+
+        if (from >= input.length()) {
+            throw new NumberFormatException("no type: " + input);
+        }
+
+        return type;
+    }
+
+    /**
+     * check if the query is of distribution - of query variable of any value, or of several query variables
+     *
+     * @return True for distribution query, False for the probability of single value of single variable
+     */
+    public boolean isDistribution() {
+        return this.queryVariables.length > 1 || this.queryValues[0] == ANY_VALUE;
+    }
+
+    /**
+     * check if variable is query variable
+     *
+     * @param variable the variable
+     * @return True if the variable is one of the query variables
+     */
+    public boolean isQueryVariable(int variable) {
+        for (int queryVariable : this.queryVariables) {
+            if (queryVariable == variable) {
+                return true;
+            }
+        }
+
+        return false;
+    }
 }
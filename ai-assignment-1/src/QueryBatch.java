@@ -0,0 +1,269 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Running batch of queries of single network.
+ * The queries are independent, so they run on pool of workers that share the (read only) network,
+ * and the results are printed in the same order of the queries lines.
+ * The lines can be grouped by their evidences (by blocks of lines), so the queries of the same evidences
+ * share the work of Variable Elimination (EvidenceGroup), every group on single worker.
+ */
+public class QueryBatch {
+    // Members
+    /**
+     * the network of the queries
+     */
+    private final BNetwork network;
+
+    /**
+     * count of the workers, 1 for running the queries on the calling thread
+     */
+    private final int threads;
+
+    /**
+     * max count of queries that are waiting for printing,
+     * the queries lines are read only when there is place in the window.
+     */
+    private final int window;
+
+    /**
+     * cache of the results of the queries, null for no cache
+     */
+    private final QueryCache cache;
+
+    /**
+     * the profiler of the queries, null for no profiling
+     */
+    private final QueryProfiler profiler;
+
+    /**
+     * count of the lines of every block that its lines are grouped by their evidences, 0 for no grouping
+     */
+    private final int groupBlock;
+
+    /**
+     * the convergence settings of the belief propagation of the queries (type 7)
+     */
+    private final BeliefPropagation.Convergence convergence;
+
+    /**
+     * Create batch of queries
+     *
+     * @param network the network of the queries
+     * @param threads count of the workers
+     * @param cache cache of the results, null for no cache
+     * @param profiler the profiler of the queries, null for no profiling
+     * @param groupBlock count of the lines of every block that its lines are grouped by their evidences,
+     *                   0 for no grouping
+     * @param convergence the convergence settings of the belief propagation of the queries (type 7)
+     */
+    public QueryBatch(BNetwork network, int threads, QueryCache cache, QueryProfiler profiler, int groupBlock,
+                      BeliefPropagation.Convergence convergence) {
+        this.network = network;
+        this.threads = Math.max(1, threads);
+        this.window = this.threads * 64;
+        this.cache = cache;
+        this.profiler = profiler;
+        this.groupBlock = Math.max(0, groupBlock);
+        this.convergence = convergence;
+    }
+
+    /**
+     * parse and call single query line
+     *
+     * @param queryInput query line, example: P(B=T|J=T,M=T),1
+     * @param group the group of the queries of the same evidences, null for no sharing
+     * @return the results of the query
+     */
+    private QueryResults callLine(String queryInput, EvidenceGroup group) {
+        if (this.profiler == null) {
+            return callQuery(new Query(this.network, queryInput), null, group);
+        }
+
+        QueryProfile profile = this.profiler.start(queryInput);
+        Query query = new Query(this.network, queryInput);
+        profile.type = query.type;
+        profile.phase(QueryProfile.PARSE);
+
+        QueryResults results = callQuery(query, profile, group);
+        this.profiler.finish(profile);
+        results.profile = profile;
+
+        return results;
+    }
+
+    /**
+     * call query, or take its results from the cache
+     *
+     * @param query the query
+     * @param profile the profile of the query, null for no profiling
+     * @param group the group of the queries of the same evidences, null for no sharing
+     * @return the results of the query
+     */
+    private QueryResults callQuery(Query query, QueryProfile profile, EvidenceGroup group) {
+        query.results.profile = profile;
+        query.convergence = this.convergence;
+
+        if (this.cache == null) {
+            return Algorithms.callQuery(query, this.network, group);
+        }
+
+        QueryResults results = this.cache.get(query);
+        if (results == null) {
+            results = Algorithms.callQuery(query, this.network, group);
+            this.cache.put(query, results);
+        } else if (profile != null) {
+            profile.cached = true;
+        }
+
+        return results;
+    }
+
+    /**
+     * print the results of query, and add its profile to the profiler
+     *
+     * @param results the results
+     * @param out the output for the results
+     * @throws IOException can't write the results or the profile
+     */
+    private void print(QueryResults results, ResultsWriter out) throws IOException {
+        out.write(results);
+
+        if (this.profiler != null) {
+            this.profiler.add(results.profile);
+        }
+    }
+
+    /**
+     * run all the queries lines and print the results by the order of the lines
+     *
+     * @param lines the queries lines
+     * @param out the output for the results
+     * @throws InterruptedException interrupted while waiting to the workers
+     * @throws ExecutionException query failed in a worker
+     * @throws IOException can't write the results or the profiles
+     */
+    public void run(Iterator<String> lines, ResultsWriter out) throws InterruptedException, ExecutionException, IOException {
+        if (this.groupBlock > 0) {
+            runGrouped(lines, out);
+            return;
+        }
+
+        // single thread - no need for pool
+        if (this.threads == 1) {
+            while (lines.hasNext()) {
+                print(callLine(lines.next(), null), out);
+            }
+
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+
+        try {
+            Deque<Future<QueryResults>> pending = new ArrayDeque<>(this.window);
+
+            while (lines.hasNext()) {
+                // wait for the oldest query before reading more lines
+                if (pending.size() == this.window) {
+                    print(pending.removeFirst().get(), out);
+                }
+
+                String queryInput = lines.next();
+                pending.addLast(pool.submit(() -> callLine(queryInput, null)));
+            }
+
+            while (!pending.isEmpty()) {
+                print(pending.removeFirst().get(), out);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * run all the queries lines by blocks, and print the results by the order of the lines
+     *
+     * @param lines the queries lines
+     * @param out the output for the results
+     * @throws InterruptedException interrupted while waiting to the workers
+     * @throws ExecutionException query failed in a worker
+     * @throws IOException can't write the results or the profiles
+     */
+    private void runGrouped(Iterator<String> lines, ResultsWriter out) throws InterruptedException, ExecutionException, IOException {
+        ExecutorService pool = (this.threads == 1) ? null : Executors.newFixedThreadPool(this.threads);
+
+        try {
+            List<String> block = new ArrayList<>(this.groupBlock);
+
+            while (lines.hasNext()) {
+                block.clear();
+                while (lines.hasNext() && block.size() < this.groupBlock) {
+                    block.add(lines.next());
+                }
+
+                // the lines before failed query are printed, like running the lines one by one
+                RuntimeException[] failures = new RuntimeException[block.size()];
+                QueryResults[] results = runGroups(block, pool, failures);
+                for (int i = 0; i < results.length; i++) {
+                    if (failures[i] != null) {
+                        throw new ExecutionException(failures[i]);
+                    }
+                    print(results[i], out);
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * run block of lines grouped by their evidences - every group runs on single worker with shared EvidenceGroup
+     *
+     * @param block the lines of the block
+     * @param pool the workers, null for running the groups on the calling thread
+     * @param failures filled with the failure of every failed query, the other queries of its group still run
+     * @return the results by the order of the lines, null for failed query
+     * @throws InterruptedException interrupted while waiting to the workers
+     * @throws ExecutionException group failed in a worker
+     */
+    private QueryResults[] runGroups(List<String> block, ExecutorService pool, RuntimeException[] failures)
+            throws InterruptedException, ExecutionException {
+        // the lines indexes of every evidences, by the order of the first line of the evidences
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < block.size(); i++) {
+            groups.computeIfAbsent(EvidenceGroup.evidencesKey(block.get(i)), key -> new ArrayList<>()).add(i);
+        }
+
+        QueryResults[] results = new QueryResults[block.size()];
+        List<Future<?>> futures = new ArrayList<>(groups.size());
+
+        for (List<Integer> indexes : groups.values()) {
+            Runnable task = () -> {
+                EvidenceGroup group = new EvidenceGroup(this.network);
+                for (int index : indexes) {
+                    try {
+                        results[index] = callLine(block.get(index), group);
+                    } catch (RuntimeException ex) {
+                        failures[index] = ex;
+                    }
+                }
+            };
+
+            if (pool == null) {
+                task.run();
+            } else {
+                futures.add(pool.submit(task));
+            }
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,152 @@
+import java.util.*;
+
+/**
+ * Bounded cache of queries results, with LRU eviction.
+ * Queries are equal when they have the same query variables and values, the same evidences
+ * (in any order) and the same algorithm type, so the cached additions and multiplies are the same
+ * as running the query again.
+ */
+public class QueryCache {
+    /**
+     * canonical form of query
+     */
+    private static final class Key {
+        /**
+         * type, count of the query variables, pairs of query variable and query value,
+         * and then pairs of evidence variable and evidence value, sorted by the evidence variable
+         */
+        private final int[] data;
+
+        /**
+         * the hash of the data
+         */
+        private final int hash;
+
+        private Key(Query query) {
+            int evidencesLength = query.evidencesVariables.length;
+
+            // sort the evidences by the variables keys
+            Integer[] order = new Integer[evidencesLength];
+            for (int i = 0; i < evidencesLength; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingInt(i -> query.evidencesVariables[i]));
+
+            // the query variables by their order, that is the order of the distribution
+            int queriesLength = query.queryVariables.length;
+            this.data = new int[2 + 2 * queriesLength + 2 * evidencesLength];
+            this.data[0] = query.type;
+            this.data[1] = queriesLength;
+
+            for (int i = 0; i < queriesLength; i++) {
+                this.data[2 + 2 * i] = query.queryVariables[i];
+                this.data[3 + 2 * i] = query.queryValues[i];
+            }
+
+            int offset = 2 + 2 * queriesLength;
+            for (int i = 0; i < evidencesLength; i++) {
+                this.data[offset + 2 * i] = query.evidencesVariables[order[i]];
+                this.data[offset + 1 + 2 * i] = query.evidencesValues[order[i]];
+            }
+
+            this.hash = Arrays.hashCode(this.data);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(this.data, ((Key) other).data);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    // Members
+    /**
+     * the cached results, ordered from the least recently used
+     */
+    private final LinkedHashMap<Key, QueryResults> entries;
+
+    /**
+     * count of queries found in the cache
+     */
+    private long hits = 0;
+
+    /**
+     * count of queries not found in the cache
+     */
+    private long misses = 0;
+
+    /**
+     * Create empty cache
+     *
+     * @param capacity max count of results in the cache
+     */
+    public QueryCache(int capacity) {
+        this.entries = new LinkedHashMap<Key, QueryResults>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, QueryResults> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * find the results of query
+     *
+     * @param query the query
+     * @return copy of the cached results, null if the query not in the cache
+     */
+    public synchronized QueryResults get(Query query) {
+        QueryResults results = this.entries.get(new Key(query));
+
+        if (results == null) {
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+        return results.copy();
+    }
+
+    /**
+     * add results of query to the cache
+     *
+     * @param query the query
+     * @param results the results of the query
+     */
+    public synchronized void put(Query query, QueryResults results) {
+        this.entries.put(new Key(query), results.copy());
+    }
+
+    // getters
+
+    /**
+     * get count of queries found in the cache
+     *
+     * @return count of hits
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * get count of queries not found in the cache
+     *
+     * @return count of misses
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * get count of results in the cache
+     *
+     * @return count of results
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+}
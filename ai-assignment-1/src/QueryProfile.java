@@ -0,0 +1,126 @@
+/**
+ * Profile of single query - the time of every phase, the largest factor, the elimination order and the allocated bytes.
+ * The profile exists only when the profiling is on (Query.profile is null elsewhere),
+ * so the algorithms pay single null check per phase when it is off.
+ */
+public class QueryProfile {
+    /**
+     * parsing the query line
+     */
+    static final int PARSE = 0;
+
+    /**
+     * finding the requisite variables
+     */
+    static final int PRUNE = 1;
+
+    /**
+     * creating the factors of the CPTs (reduced by the evidences)
+     */
+    static final int FACTORS = 2;
+
+    /**
+     * eliminating the hidden variables (or the whole algorithm of types without factors)
+     */
+    static final int ELIMINATE = 3;
+
+    /**
+     * joining the last factors and normalizing
+     */
+    static final int JOIN = 4;
+
+    /**
+     * the names of the phases, by their indexes
+     */
+    static final String[] PHASES = {"parse", "prune", "factors", "eliminate", "join"};
+
+    // Members
+    /**
+     * the query line
+     */
+    public final String input;
+
+    /**
+     * the algorithm type of the query, 0 if the line isn't parsed
+     */
+    public int type = 0;
+
+    /**
+     * the nanoseconds of every phase
+     */
+    public final long[] phasesNanos = new long[PHASES.length];
+
+    /**
+     * the probabilities length of the largest factor, 0 for algorithms without factors
+     */
+    public long largestFactor = 0;
+
+    /**
+     * the eliminated variables by the elimination order
+     */
+    public int[] eliminationOrder = new int[0];
+
+    /**
+     * count of the eliminated variables in eliminationOrder
+     */
+    public int eliminationLength = 0;
+
+    /**
+     * the bytes allocated by the thread of the query, -1 if the JVM doesn't measure it
+     */
+    public long allocatedBytes = -1;
+
+    /**
+     * the results taken from the cache
+     */
+    public boolean cached = false;
+
+    /**
+     * the time of the end of the last phase
+     */
+    private long mark;
+
+    /**
+     * create profile of query, the parsing phase starts now
+     *
+     * @param input the query line
+     */
+    public QueryProfile(String input) {
+        this.input = input;
+        this.mark = System.nanoTime();
+    }
+
+    /**
+     * end phase, the next phase starts now
+     *
+     * @param phase the phase, example: QueryProfile.PRUNE
+     */
+    void phase(int phase) {
+        long now = System.nanoTime();
+        this.phasesNanos[phase] += now - this.mark;
+        this.mark = now;
+    }
+
+    /**
+     * record created factor
+     *
+     * @param factor the factor
+     */
+    void factor(Factor factor) {
+        this.largestFactor = Math.max(this.largestFactor, factor.probabilities.length);
+    }
+
+    /**
+     * record eliminated variable
+     *
+     * @param variable the variable
+     */
+    void eliminated(int variable) {
+        if (this.eliminationLength == this.eliminationOrder.length) {
+            this.eliminationOrder = java.util.Arrays.copyOf(this.eliminationOrder, Math.max(8, this.eliminationLength * 2));
+        }
+
+        this.eliminationOrder[this.eliminationLength] = variable;
+        this.eliminationLength++;
+    }
+}
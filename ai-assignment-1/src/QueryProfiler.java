@@ -0,0 +1,277 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Export of the profiles of the queries, by the order of the queries lines -
+ * to CSV file (one row per query), to JSON file (array of objects), and as JFR events.
+ * The JFR events need the jdk.jfr API, that is not in the Java 8 API of the build,
+ * so the event class is in the jfr directory (built by "make build-jfr") and it is loaded by its name.
+ */
+public class QueryProfiler implements Closeable {
+    /**
+     * the allocated bytes of the threads, null if the JVM doesn't measure it
+     */
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationsBean();
+
+    /**
+     * the name of the class of the JFR events emitter
+     */
+    private static final String EVENTS_CLASS = "QueryEvent$Emitter";
+
+    // Members
+    /**
+     * the network of the queries, for the variables names
+     */
+    private final BNetwork network;
+
+    /**
+     * the writer of the profiles file, null for no file
+     */
+    private final Writer writer;
+
+    /**
+     * write JSON, false for CSV
+     */
+    private final boolean json;
+
+    /**
+     * the JFR events emitter, null for no events
+     */
+    private final Consumer<QueryProfile> events;
+
+    /**
+     * count of the written profiles
+     */
+    private long count = 0;
+
+    /**
+     * create profiler
+     *
+     * @param network the network of the queries
+     * @param path the profiles file, *.json for JSON and CSV elsewhere, null for no file
+     * @param jfr emit JFR event for every query
+     * @throws IOException can't create the file
+     * @throws IllegalStateException the JFR events class isn't built or the JVM doesn't support JFR
+     */
+    public QueryProfiler(BNetwork network, String path, boolean jfr) throws IOException {
+        this.network = network;
+        this.json = path != null && path.endsWith(".json");
+        this.events = jfr ? loadEvents(network) : null;
+
+        if (path == null) {
+            this.writer = null;
+            return;
+        }
+
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8));
+        if (this.json) {
+            this.writer.write("[\n");
+        } else {
+            this.writer.write("query,type,cached,total_ns");
+            for (String phase : QueryProfile.PHASES) {
+                this.writer.write("," + phase + "_ns");
+            }
+            this.writer.write(",largest_factor,allocated_bytes,elimination_order\n");
+        }
+    }
+
+    /**
+     * get the bean of the allocated bytes, if the JVM measures it
+     *
+     * @return the bean, null if the JVM doesn't measure the allocated bytes
+     */
+    private static com.sun.management.ThreadMXBean allocationsBean() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+                if (allocations.isThreadAllocatedMemorySupported()) {
+                    allocations.setThreadAllocatedMemoryEnabled(true);
+                    return allocations;
+                }
+            }
+        } catch (LinkageError | UnsupportedOperationException ex) {
+            // not HotSpot JVM
+        }
+
+        return null;
+    }
+
+    /**
+     * load the JFR events emitter
+     *
+     * @param network the network of the queries
+     * @return the emitter
+     */
+    @SuppressWarnings("unchecked")
+    private static Consumer<QueryProfile> loadEvents(BNetwork network) {
+        try {
+            return (Consumer<QueryProfile>) Class.forName(EVENTS_CLASS).getConstructor(BNetwork.class).newInstance(network);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            throw new IllegalStateException("the JFR events need JVM with JFR and the jfr build (make build-jfr)", ex);
+        }
+    }
+
+    /**
+     * the bytes allocated by the current thread
+     *
+     * @return the bytes, -1 if the JVM doesn't measure it
+     */
+    private static long allocatedBytes() {
+        return (ALLOCATIONS == null) ? -1 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * start profile of query, on the thread of the query
+     *
+     * @param input the query line
+     * @return the profile, its parsing phase starts now
+     */
+    public QueryProfile start(String input) {
+        QueryProfile profile = new QueryProfile(input);
+        profile.allocatedBytes = allocatedBytes();
+
+        return profile;
+    }
+
+    /**
+     * finish profile of query, on the thread of the query.
+     * the time after the last phase is counted to the elimination phase (it is the whole algorithm of the types
+     * without factors), and the allocated bytes are of the thread (without the ForkJoinPool workers of big factors).
+     *
+     * @param profile the profile
+     */
+    public void finish(QueryProfile profile) {
+        profile.phase(QueryProfile.ELIMINATE);
+
+        if (profile.allocatedBytes != -1) {
+            profile.allocatedBytes = allocatedBytes() - profile.allocatedBytes;
+        }
+    }
+
+    /**
+     * the names of the eliminated variables
+     *
+     * @param network the network
+     * @param profile the profile
+     * @param separator the separator between the names
+     * @return the names by the elimination order
+     */
+    static String eliminationOrderNames(BNetwork network, QueryProfile profile, String separator) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < profile.eliminationLength; i++) {
+            if (i > 0) {
+                builder.append(separator);
+            }
+            builder.append(network.variableClasses[profile.eliminationOrder[i]].getName());
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * escape string for JSON string
+     *
+     * @param value the string
+     * @return the escaped string, with the quotes
+     */
+    private static String jsonString(String value) {
+        StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < ' ') {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+
+        return builder.append('"').toString();
+    }
+
+    /**
+     * quote string for CSV field
+     *
+     * @param value the string
+     * @return the quoted string
+     */
+    private static String csvString(String value) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * write the profile of the next query and emit its JFR event
+     *
+     * @param profile the profile
+     * @throws IOException can't write the file
+     */
+    public synchronized void add(QueryProfile profile) throws IOException {
+        if (this.events != null) {
+            this.events.accept(profile);
+        }
+
+        if (this.writer == null) {
+            return;
+        }
+
+        long totalNanos = 0;
+        for (long phaseNanos : profile.phasesNanos) {
+            totalNanos += phaseNanos;
+        }
+
+        StringBuilder builder = new StringBuilder(256);
+        if (this.json) {
+            builder.append((this.count > 0) ? ",\n" : "").append("{\"query\":").append(jsonString(profile.input))
+                    .append(",\"type\":").append(profile.type)
+                    .append(",\"cached\":").append(profile.cached)
+                    .append(",\"total_ns\":").append(totalNanos);
+            for (int phase = 0; phase < QueryProfile.PHASES.length; phase++) {
+                builder.append(",\"").append(QueryProfile.PHASES[phase]).append("_ns\":").append(profile.phasesNanos[phase]);
+            }
+            builder.append(",\"largest_factor\":").append(profile.largestFactor)
+                    .append(",\"allocated_bytes\":").append(profile.allocatedBytes)
+                    .append(",\"elimination_order\":[");
+            for (int i = 0; i < profile.eliminationLength; i++) {
+                builder.append((i > 0) ? "," : "")
+                        .append(jsonString(this.network.variableClasses[profile.eliminationOrder[i]].getName()));
+            }
+            builder.append("]}");
+        } else {
+            builder.append(csvString(profile.input))
+                    .append(',').append(profile.type)
+                    .append(',').append(profile.cached)
+                    .append(',').append(totalNanos);
+            for (long phaseNanos : profile.phasesNanos) {
+                builder.append(',').append(phaseNanos);
+            }
+            builder.append(',').append(profile.largestFactor)
+                    .append(',').append(profile.allocatedBytes)
+                    .append(',').append(csvString(eliminationOrderNames(this.network, profile, " ")))
+                    .append('\n');
+        }
+
+        this.writer.write(builder.toString());
+        this.count++;
+    }
+
+    /**
+     * close the profiles file
+     *
+     * @throws IOException can't write the file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.writer == null) {
+            return;
+        }
+
+        if (this.json) {
+            this.writer.write("\n]\n");
+        }
+        this.writer.close();
+    }
+}
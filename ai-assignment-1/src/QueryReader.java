@@ -0,0 +1,161 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reader of the lines of the input file, mapped to memory (by windows, for big files), without Scanner.
+ * The lines are like Scanner.nextLine (without the line separator, "\n", "\r\n" or "\r"),
+ * and there is next line like Scanner.hasNext - while the rest of the input isn't only whitespaces.
+ */
+public class QueryReader implements Iterator<String>, Closeable {
+    /**
+     * max size of mapped window of the file
+     */
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    // Members
+    /**
+     * the channel of the file, null for input from memory
+     */
+    private final FileChannel channel;
+
+    /**
+     * the size of the input
+     */
+    private final long size;
+
+    /**
+     * the position of the next line in the input
+     */
+    private long position = 0;
+
+    /**
+     * the current window of the input
+     */
+    private ByteBuffer window;
+
+    /**
+     * the position of the window in the input
+     */
+    private long windowStart = 0;
+
+    /**
+     * the bytes of the current line
+     */
+    private byte[] line = new byte[256];
+
+    /**
+     * read file
+     *
+     * @param path the path of the file
+     * @throws IOException can't open or map the file
+     */
+    public QueryReader(String path) throws IOException {
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        this.size = this.channel.size();
+
+        try {
+            map(0);
+        } catch (IOException ex) {
+            this.channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * read input from memory
+     *
+     * @param input the input, from its position to its limit
+     */
+    public QueryReader(ByteBuffer input) {
+        this.channel = null;
+        this.window = input.slice();
+        this.size = this.window.limit();
+    }
+
+    /**
+     * map the window of the file from position
+     *
+     * @param start the position of the window
+     * @throws IOException can't map the file
+     */
+    private void map(long start) throws IOException {
+        this.windowStart = start;
+        this.window = this.channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, this.size - start));
+    }
+
+    /**
+     * get byte of the input
+     *
+     * @param at the position of the byte, less than the size
+     * @return the byte
+     */
+    private byte byteAt(long at) {
+        long offset = at - this.windowStart;
+        if (offset < 0 || offset >= this.window.limit()) {
+            try {
+                map(at);
+            } catch (IOException ex) {
+                throw new IllegalStateException("can't read the input: " + ex.getMessage(), ex);
+            }
+            offset = 0;
+        }
+
+        return this.window.get((int) offset);
+    }
+
+    @Override
+    public boolean hasNext() {
+        for (long at = this.position; at < this.size; at++) {
+            byte b = byteAt(at);
+            if (b != ' ' && (b < '\t' || b > '\r') && (b < 0x1c || b > 0x1f)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public String next() {
+        if (this.position >= this.size) {
+            throw new NoSuchElementException("No line found");
+        }
+
+        int length = 0;
+        while (this.position < this.size) {
+            byte b = byteAt(this.position++);
+
+            if (b == '\n') {
+                break;
+            }
+            if (b == '\r') {
+                if (this.position < this.size && byteAt(this.position) == '\n') {
+                    this.position++;
+                }
+                break;
+            }
+
+            if (length == this.line.length) {
+                this.line = Arrays.copyOf(this.line, length * 2);
+            }
+            this.line[length++] = b;
+        }
+
+        return new String(this.line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+        }
+    }
+}
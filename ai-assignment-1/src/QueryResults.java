@@ -1,3 +1,6 @@
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
 /**
  * Results of single query
  */
@@ -17,4 +20,152 @@ public class QueryResults {
      * count of multiplies
      */
     public int multiplies = 0;
+
+    /**
+     * the error estimate of approximate probability (half width of its 95% confidence interval),
+     * NaN for exact probability
+     */
+    public double error = Double.NaN;
+
+    /**
+     * the distribution of the query variables of any value ("*") - by their values, the first variable changes
+     * the fastest, given the values of the other query variables. null for single probability
+     */
+    public double[] probabilities = null;
+
+    /**
+     * the profile of the query, null when the profiling is off (not copied, it is of single call)
+     */
+    public QueryProfile profile = null;
+
+    /**
+     * copy the results
+     *
+     * @return new results with the same values
+     */
+    public QueryResults copy() {
+        QueryResults results = new QueryResults();
+        results.probability = this.probability;
+        results.additions = this.additions;
+        results.multiplies = this.multiplies;
+        results.error = this.error;
+        results.probabilities = (this.probabilities == null) ? null : this.probabilities.clone();
+
+        return results;
+    }
+
+    /**
+     * format the results as output line (without line separator)
+     *
+     * @return probability, additions, multiplies (and the error of approximate probability).
+     *         example: 0.28417,7,16 or 0.28391,200000,100000,0.00214.
+     *         the probabilities of distribution are separated by spaces, example: 0.28417 0.71583,7,16
+     */
+    public String format() {
+        return appendTo(new StringBuilder(32)).toString();
+    }
+
+    /**
+     * append the output line of the results (without line separator), the same as format()
+     *
+     * @param builder the builder
+     * @return the builder
+     */
+    public StringBuilder appendTo(StringBuilder builder) {
+        if (this.probabilities != null) {
+            for (int i = 0; i < this.probabilities.length; i++) {
+                if (i > 0) {
+                    builder.append(' ');
+                }
+                appendDecimal(builder, this.probabilities[i]);
+            }
+        } else {
+            appendDecimal(builder, this.probability);
+        }
+
+        appendInteger(builder.append(','), this.additions);
+        appendInteger(builder.append(','), this.multiplies);
+
+        if (this.probabilities == null && !Double.isNaN(this.error)) {
+            appendDecimal(builder.append(','), this.error);
+        }
+
+        return builder;
+    }
+
+    // formatting without Formatter
+
+    /**
+     * the locale of the last formatting
+     */
+    private static volatile Locale formatLocale = null;
+
+    /**
+     * the locale of the last formatting formats numbers like the ROOT locale (ASCII digits and '.' separator)
+     */
+    private static volatile boolean plainLocale = false;
+
+    /**
+     * check if the current format locale formats numbers like the ROOT locale
+     *
+     * @return True for plain numbers, False if the numbers need Formatter
+     */
+    private static boolean isPlainLocale() {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        if (locale != formatLocale) {
+            DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+            plainLocale = symbols.getZeroDigit() == '0' && symbols.getDecimalSeparator() == '.';
+            formatLocale = locale;
+        }
+
+        return plainLocale;
+    }
+
+    /**
+     * append number like String.format("%.05f").
+     * the number is rounded by its binary value, that is the same as the decimal rounding of Formatter (half up)
+     * except near the middle between two results, so these numbers (and the numbers of other locales) use Formatter.
+     * the scaled number is exact enough only below 1e4 (bigger numbers lose the fifth decimal), so they use
+     * Formatter too.
+     *
+     * @param builder the builder
+     * @param value the number
+     */
+    static void appendDecimal(StringBuilder builder, double value) {
+        double magnitude = Math.abs(value);
+        double scaled = magnitude * 100000;
+        double whole = Math.floor(scaled);
+        double fraction = scaled - whole;
+
+        if (!(magnitude < 1e4) || Math.abs(fraction - 0.5) < 1e-6 || !isPlainLocale()) {
+            builder.append(String.format("%.05f", value));
+            return;
+        }
+
+        long units = (long) whole + ((fraction > 0.5) ? 1 : 0);
+        long decimals = units % 100000;
+
+        if (Double.doubleToRawLongBits(value) < 0) {
+            builder.append('-');
+        }
+        builder.append(units / 100000).append('.');
+        for (long digit = 10000; digit > decimals && digit > 1; digit /= 10) {
+            builder.append('0');
+        }
+        builder.append(decimals);
+    }
+
+    /**
+     * append integer like String.format("%d")
+     *
+     * @param builder the builder
+     * @param value the integer
+     */
+    static void appendInteger(StringBuilder builder, int value) {
+        if (isPlainLocale()) {
+            builder.append(value);
+        } else {
+            builder.append(String.format("%d", value));
+        }
+    }
 }
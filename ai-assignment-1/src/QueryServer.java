@@ -0,0 +1,544 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Local query server - keeps the networks loaded and answers queries lines over TCP (on the loopback address).
+ * The protocol is the input file format: line of network file (xml or compiled binary) selects the network of the
+ * next queries, and every query line (example: P(B=T|J=T,M=T),1) is answered by its output line
+ * (or "error: ..." line), by the order of the queries of the connection.
+ * Every network is loaded once (on its first use) and it has its own queries cache.
+ * Single selector thread (Java 8 NIO) reads and writes all the connections, and the queries run on pool of workers,
+ * so many concurrent clients don't need thread per client.
+ */
+public class QueryServer implements Closeable {
+    /**
+     * max count of queries of connection that are waiting for their results, the reading of the connection
+     * is paused until some of them are written
+     */
+    private static final int MAX_PENDING = 4096;
+
+    /**
+     * the size of the reading buffer
+     */
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * max length of line (in bytes), longer lines are answered by error line
+     */
+    private static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+    /**
+     * the pause of accepting clients after failed accept (like too many open files), in milliseconds
+     */
+    private static final long ACCEPT_PAUSE_MILLIS = 100;
+
+    /**
+     * loaded network with its cache
+     */
+    private static final class LoadedNetwork {
+        /**
+         * the network
+         */
+        private final BNetwork network;
+
+        /**
+         * the cache of the results of the network queries, null for no cache
+         */
+        private final QueryCache cache;
+
+        private LoadedNetwork(BNetwork network, QueryCache cache) {
+            this.network = network;
+            this.cache = cache;
+        }
+    }
+
+    /**
+     * connection of client, used only by the selector thread
+     */
+    private static final class Connection {
+        /**
+         * the channel of the client
+         */
+        private final SocketChannel channel;
+
+        /**
+         * the bytes of the current line
+         */
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+
+        /**
+         * the current line is longer than MAX_LINE_LENGTH, its rest is skipped
+         */
+        private boolean lineTooLong = false;
+
+        /**
+         * the network of the next queries, null before the network line
+         */
+        private CompletableFuture<LoadedNetwork> network = null;
+
+        /**
+         * the results of the queries by their order, that are not written yet
+         */
+        private final ArrayDeque<CompletableFuture<String>> pending = new ArrayDeque<>();
+
+        /**
+         * the output that is not written yet
+         */
+        private ByteBuffer output = null;
+
+        /**
+         * the client ended its input, the connection is closed after writing the pending results
+         */
+        private boolean closing = false;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    // Members
+    /**
+     * the server channel
+     */
+    private final ServerSocketChannel server;
+
+    /**
+     * the selector of the server channel and the connections
+     */
+    private final Selector selector;
+
+    /**
+     * the key of the server channel
+     */
+    private final SelectionKey serverKey;
+
+    /**
+     * the time (System.nanoTime) to accept clients again after failed accept, 0 while accepting
+     */
+    private long acceptPausedUntil = 0;
+
+    /**
+     * the workers of the queries and the loading of the networks
+     */
+    private final ExecutorService workers;
+
+    /**
+     * max count of results in the cache of every network, 0 for no cache
+     */
+    private final int cacheCapacity;
+
+    /**
+     * the convergence settings of the belief propagation of the queries (type 7)
+     */
+    private final BeliefPropagation.Convergence convergence;
+
+    /**
+     * the networks by their files
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<LoadedNetwork>> networks = new ConcurrentHashMap<>();
+
+    /**
+     * the connections that have new results, to be handled by the selector thread
+     */
+    private final ConcurrentLinkedQueue<Connection> ready = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the reading buffer (of the selector thread)
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    /**
+     * create server on the loopback address
+     *
+     * @param port the port, 0 for any free port
+     * @param threads count of the workers
+     * @param cacheCapacity max count of results in the cache of every network, 0 for no cache
+     * @param convergence the convergence settings of the belief propagation of the queries (type 7)
+     * @throws IOException can't open the server
+     */
+    public QueryServer(int port, int threads, int cacheCapacity, BeliefPropagation.Convergence convergence)
+            throws IOException {
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        this.server.configureBlocking(false);
+        this.serverKey = this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+
+        // closing channel needs file descriptor the first time (the JDK dispatcher init),
+        // so it is done now and not when all the descriptors are taken by clients
+        SocketChannel.open().close();
+
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        this.cacheCapacity = cacheCapacity;
+        this.convergence = convergence;
+    }
+
+    /**
+     * get the port of the server
+     *
+     * @return the port
+     * @throws IOException the server is closed
+     */
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) this.server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * get network, loaded once by the workers
+     *
+     * @param path the network file, xml or compiled binary
+     * @return the loading of the network
+     */
+    public CompletableFuture<?> load(String path) {
+        return network(path);
+    }
+
+    /**
+     * get network with its cache, loaded once by the workers
+     *
+     * @param path the network file, xml or compiled binary
+     * @return the loading of the network
+     */
+    private CompletableFuture<LoadedNetwork> network(String path) {
+        CompletableFuture<LoadedNetwork> loading = this.networks.computeIfAbsent(path, key -> CompletableFuture.supplyAsync(() -> {
+            try {
+                BNetwork network = path.endsWith(BinaryNetwork.EXTENSION) ? BinaryNetwork.load(path) : new BNetwork(path);
+                return new LoadedNetwork(network, (this.cacheCapacity > 0) ? new QueryCache(this.cacheCapacity) : null);
+            } catch (Exception ex) {
+                throw new IllegalArgumentException("can't load the " + path + " file", ex);
+            }
+        }, this.workers));
+
+        // failed loading isn't kept, so the next use of the path loads it again
+        loading.whenComplete((loaded, ex) -> {
+            if (ex != null) {
+                this.networks.remove(path, loading);
+            }
+        });
+
+        return loading;
+    }
+
+    /**
+     * answer query line
+     *
+     * @param loaded the network of the query
+     * @param queryInput the query line
+     * @param convergence the convergence settings of the belief propagation
+     * @return the output line of the query (without line separator)
+     */
+    private static String answer(LoadedNetwork loaded, String queryInput, BeliefPropagation.Convergence convergence) {
+        Query query = new Query(loaded.network, queryInput);
+        query.convergence = convergence;
+
+        if (loaded.cache == null) {
+            return Algorithms.callQuery(query, loaded.network).format();
+        }
+
+        QueryResults results = loaded.cache.get(query);
+        if (results == null) {
+            results = Algorithms.callQuery(query, loaded.network);
+            loaded.cache.put(query, results);
+        }
+
+        return results.format();
+    }
+
+    /**
+     * the output line of failed query
+     *
+     * @param ex the failure
+     * @return the error line
+     */
+    private static String error(Throwable ex) {
+        Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+
+        return "error: " + ((cause.getMessage() != null) ? cause.getMessage() : cause.toString());
+    }
+
+    /**
+     * run the server until it is closed, on the calling thread
+     *
+     * @throws IOException the selector failed
+     */
+    public void run() throws IOException {
+        while (this.selector.isOpen()) {
+            try {
+                if (this.acceptPausedUntil == 0) {
+                    this.selector.select();
+                } else {
+                    this.selector.select(ACCEPT_PAUSE_MILLIS);
+                    resumeAccept(false);
+                }
+            } catch (ClosedSelectorException ex) {
+                break;
+            }
+
+            // the connections with new results
+            Connection connection;
+            while ((connection = this.ready.poll()) != null) {
+                try {
+                    flush(connection);
+                } catch (IOException | CancelledKeyException ex) {
+                    // the client is gone
+                    disconnect(connection);
+                }
+            }
+
+            Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                if (!key.isValid()) {
+                    continue;
+                }
+
+                // the server channel stays open when accepting fails
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+
+                connection = (Connection) key.attachment();
+                try {
+                    if (key.isReadable()) {
+                        read(connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        flush(connection);
+                    }
+                } catch (IOException | CancelledKeyException ex) {
+                    // the client is gone
+                    disconnect(connection);
+                }
+            }
+        }
+    }
+
+    /**
+     * accept new client. failure (like too many open files) is logged and the accepting is paused for a moment
+     * (or until a client is disconnected), the server channel stays open
+     */
+    private void accept() {
+        SocketChannel channel;
+        try {
+            channel = this.server.accept();
+        } catch (IOException ex) {
+            System.err.println("Can't accept client: " + ex.getMessage());
+            this.serverKey.interestOps(0);
+            this.acceptPausedUntil = System.nanoTime() + ACCEPT_PAUSE_MILLIS * 1_000_000;
+            return;
+        }
+
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(this.selector, SelectionKey.OP_READ, new Connection(channel));
+        } catch (IOException ex) {
+            System.err.println("Can't accept client: " + ex.getMessage());
+            try {
+                channel.close();
+            } catch (IOException closeEx) {
+                // the channel is closed anyway
+            }
+        }
+    }
+
+    /**
+     * accept clients again after paused accepting
+     *
+     * @param now True to resume now, False to resume only if the pause is over
+     */
+    private void resumeAccept(boolean now) {
+        if (this.acceptPausedUntil != 0 && (now || System.nanoTime() - this.acceptPausedUntil >= 0)) {
+            this.acceptPausedUntil = 0;
+            if (this.serverKey.isValid()) {
+                this.serverKey.interestOps(SelectionKey.OP_ACCEPT);
+            }
+        }
+    }
+
+    /**
+     * close the connection of client that is gone
+     *
+     * @param connection the connection
+     */
+    private void disconnect(Connection connection) {
+        SelectionKey key = connection.channel.keyFor(this.selector);
+        if (key != null) {
+            key.cancel();
+        }
+
+        try {
+            connection.channel.close();
+        } catch (IOException ex) {
+            // the channel is closed anyway
+        }
+
+        // its file descriptor is free for new client
+        resumeAccept(true);
+    }
+
+    /**
+     * read the available input of connection and handle its complete lines
+     *
+     * @param connection the connection
+     * @throws IOException can't read
+     */
+    private void read(Connection connection) throws IOException {
+        this.readBuffer.clear();
+        int length = connection.channel.read(this.readBuffer);
+
+        if (length == -1) {
+            connection.closing = true;
+            if (connection.line.size() > 0 || connection.lineTooLong) {
+                handleLine(connection);
+            }
+            flush(connection);
+            return;
+        }
+
+        this.readBuffer.flip();
+        while (this.readBuffer.hasRemaining()) {
+            byte b = this.readBuffer.get();
+            if (b == '\n') {
+                handleLine(connection);
+            } else if (connection.line.size() < MAX_LINE_LENGTH) {
+                connection.line.write(b);
+            } else {
+                connection.lineTooLong = true;
+            }
+        }
+
+        if (connection.pending.size() >= MAX_PENDING) {
+            flush(connection);
+        }
+    }
+
+    /**
+     * handle complete line of connection - select the network or schedule the query
+     *
+     * @param connection the connection
+     */
+    private void handleLine(Connection connection) {
+        if (connection.lineTooLong) {
+            connection.line.reset();
+            connection.lineTooLong = false;
+            addResult(connection, CompletableFuture.completedFuture("error: the line is longer than " + MAX_LINE_LENGTH + " bytes"));
+            return;
+        }
+
+        String line = new String(connection.line.toByteArray(), StandardCharsets.UTF_8).trim();
+        connection.line.reset();
+
+        if (line.isEmpty()) {
+            return;
+        }
+
+        // network line
+        if (!line.startsWith("P(")) {
+            connection.network = network(line);
+            return;
+        }
+
+        CompletableFuture<String> result;
+        if (connection.network == null) {
+            result = CompletableFuture.completedFuture("error: no network line before the query");
+        } else {
+            result = connection.network
+                    .thenApplyAsync(loaded -> answer(loaded, line, this.convergence), this.workers)
+                    .exceptionally(QueryServer::error);
+        }
+
+        addResult(connection, result);
+    }
+
+    /**
+     * add the result of the next line of connection, the connection is flushed when the result is ready
+     *
+     * @param connection the connection
+     * @param result the output line of the line
+     */
+    private void addResult(Connection connection, CompletableFuture<String> result) {
+        connection.pending.addLast(result);
+        result.whenComplete((output, ex) -> {
+            this.ready.add(connection);
+            this.selector.wakeup();
+        });
+    }
+
+    /**
+     * write the results of connection that are ready (by the order of the queries), and update the interest
+     * of the connection - write while there is output, read while there are not too many pending queries
+     *
+     * @param connection the connection
+     * @throws IOException can't write
+     */
+    private void flush(Connection connection) throws IOException {
+        SelectionKey key = connection.channel.keyFor(this.selector);
+        if (key == null || !key.isValid()) {
+            return;
+        }
+
+        // collect the ready results
+        if (!connection.pending.isEmpty() && connection.pending.peekFirst().isDone()) {
+            StringBuilder builder = new StringBuilder();
+            while (!connection.pending.isEmpty() && connection.pending.peekFirst().isDone()) {
+                builder.append(connection.pending.removeFirst().join()).append('\n');
+            }
+
+            byte[] bytes = builder.toString().getBytes(StandardCharsets.UTF_8);
+            if (connection.output == null || !connection.output.hasRemaining()) {
+                connection.output = ByteBuffer.wrap(bytes);
+            } else {
+                ByteBuffer output = ByteBuffer.allocate(connection.output.remaining() + bytes.length);
+                output.put(connection.output).put(bytes).flip();
+                connection.output = output;
+            }
+        }
+
+        if (connection.output != null && connection.output.hasRemaining()) {
+            connection.channel.write(connection.output);
+        }
+
+        boolean writing = connection.output != null && connection.output.hasRemaining();
+        if (connection.closing && !writing && connection.pending.isEmpty()) {
+            key.cancel();
+            connection.channel.close();
+            resumeAccept(true);
+            return;
+        }
+
+        boolean reading = !connection.closing && connection.pending.size() < MAX_PENDING;
+        key.interestOps((reading ? SelectionKey.OP_READ : 0) | (writing ? SelectionKey.OP_WRITE : 0));
+    }
+
+    /**
+     * close the server, its connections and its workers
+     *
+     * @throws IOException can't close the channels
+     */
+    @Override
+    public void close() throws IOException {
+        this.workers.shutdownNow();
+
+        for (SelectionKey key : this.selector.keys()) {
+            key.channel().close();
+        }
+        this.selector.close();
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Relevance pruning of query (Bayes-ball).
+ * Finds the requisite variables of query - the variables that their CPTs are needed for the query.
+ * The other variables are barren or d-separated from the query variables given the evidences,
+ * so their CPTs only multiply the probabilities of the query by a constant (removed by the normalization).
+ * The requisite variables are always ancestors of the query variables or of the evidences.
+ * Every variable is visited at most once from its parents and once from its children,
+ * so the pruning is linear in the size of the network.
+ * The visits are limited to the ancestral set of the query (from the ancestors bitsets of the network),
+ * the other variables can only pass the ball down, so they never get the top mark.
+ */
+public class Relevance {
+    /**
+     * visit from child of the variable
+     */
+    private static final int FROM_CHILD = 1;
+
+    /**
+     * visit from parent of the variable
+     */
+    private static final int FROM_PARENT = 2;
+
+    /**
+     * mark of variable that its parents visited (the top mark)
+     */
+    private static final int TOP = 4;
+
+    /**
+     * mark of variable that its children visited (the bottom mark)
+     */
+    private static final int BOTTOM = 8;
+
+    /**
+     * mark of evidence variable
+     */
+    private static final int EVIDENCE = 16;
+
+    /**
+     * find the requisite variables of query
+     *
+     * @param network the network
+     * @param query the query
+     * @param arena the arena of the buffers, null for new buffers
+     * @return flags of the variables, by the variables keys - 1 for requisite variable, 0 elsewhere
+     */
+    public static int[] requisite(BNetwork network, Query query, FactorArena arena) {
+        int variablesLength = network.variableClasses.length;
+        int[] marks = (arena == null) ? new int[variablesLength] : arena.takeInts(variablesLength);
+
+        // the scheduled visits - the variable and the direction (from child or from parent)
+        int[] queue = (arena == null) ? new int[2 * variablesLength + 1] : arena.takeInts(2 * variablesLength + 1);
+        int head = 0;
+        int tail = 0;
+
+        // the ancestral set - the query variables, the evidences and their ancestors
+        int words = Bitsets.words(variablesLength);
+        long[] ancestral = (arena == null) ? new long[words] : arena.takeLongs(words);
+        for (int queryVariable : query.queryVariables) {
+            Bitsets.or(ancestral, network.ancestors[queryVariable]);
+            Bitsets.set(ancestral, queryVariable);
+        }
+
+        for (int evidence : query.evidencesVariables) {
+            marks[evidence] |= EVIDENCE;
+            Bitsets.or(ancestral, network.ancestors[evidence]);
+            Bitsets.set(ancestral, evidence);
+        }
+
+        // the query variables are visited as from child
+        for (int queryVariable : query.queryVariables) {
+            if ((marks[queryVariable] & FROM_CHILD) == 0) {
+                marks[queryVariable] |= FROM_CHILD;
+                queue[tail] = queryVariable << 2 | FROM_CHILD;
+                tail++;
+            }
+        }
+
+        while (head < tail) {
+            int variable = queue[head] >>> 2;
+            boolean fromChild = (queue[head] & FROM_CHILD) != 0;
+            head++;
+
+            boolean isEvidence = (marks[variable] & EVIDENCE) != 0;
+
+            // visit the parents - unobserved variable from child, or observed variable from parent
+            if ((fromChild != isEvidence) && (marks[variable] & TOP) == 0) {
+                marks[variable] |= TOP;
+
+                for (int parent : network.parents[variable]) {
+                    if ((marks[parent] & FROM_CHILD) == 0) {
+                        marks[parent] |= FROM_CHILD;
+                        queue[tail] = parent << 2 | FROM_CHILD;
+                        tail++;
+                    }
+                }
+            }
+
+            // visit the children - unobserved variable from any direction
+            if (!isEvidence && (marks[variable] & BOTTOM) == 0) {
+                marks[variable] |= BOTTOM;
+
+                for (int child : network.children[variable]) {
+                    if ((marks[child] & FROM_PARENT) == 0 && Bitsets.has(ancestral, child)) {
+                        marks[child] |= FROM_PARENT;
+                        queue[tail] = child << 2 | FROM_PARENT;
+                        tail++;
+                    }
+                }
+            }
+        }
+
+        // the requisite variables are the variables with the top mark
+        for (int variable = 0; variable < variablesLength; variable++) {
+            marks[variable] = ((marks[variable] & TOP) != 0) ? 1 : 0;
+        }
+
+        if (arena != null) {
+            arena.release(queue);
+            arena.release(ancestral);
+        }
+
+        return marks;
+    }
+}
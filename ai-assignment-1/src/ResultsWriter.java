@@ -0,0 +1,112 @@
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Buffered writer of the output lines of the results, without Formatter and without String for every line.
+ * The lines are the same as printing QueryResults.format() by PrintStream.println (the default charset and
+ * the line separator of the system).
+ */
+public class ResultsWriter implements Closeable, Flushable {
+    /**
+     * the size of the buffer
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Members
+    /**
+     * the output
+     */
+    private final OutputStream out;
+
+    /**
+     * the bytes that are not written yet
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * count of the bytes in the buffer
+     */
+    private int count = 0;
+
+    /**
+     * the current line
+     */
+    private final StringBuilder line = new StringBuilder(64);
+
+    /**
+     * create writer
+     *
+     * @param out the output
+     */
+    public ResultsWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * write the output line of results
+     *
+     * @param results the results
+     * @throws IOException can't write
+     */
+    public void write(QueryResults results) throws IOException {
+        this.line.setLength(0);
+        results.appendTo(this.line).append(System.lineSeparator());
+
+        int length = this.line.length();
+        if (this.count + length > this.buffer.length) {
+            flushBuffer();
+        }
+
+        // ASCII line - copy the chars, other lines are encoded by the default charset
+        if (length <= this.buffer.length) {
+            int count = this.count;
+            for (int i = 0; i < length; i++) {
+                char c = this.line.charAt(i);
+                if (c >= 0x80) {
+                    count = -1;
+                    break;
+                }
+                this.buffer[count++] = (byte) c;
+            }
+
+            if (count != -1) {
+                this.count = count;
+                return;
+            }
+        }
+
+        flushBuffer();
+        this.out.write(this.line.toString().getBytes(Charset.defaultCharset()));
+    }
+
+    /**
+     * write the buffer to the output
+     *
+     * @throws IOException can't write
+     */
+    private void flushBuffer() throws IOException {
+        if (this.count > 0) {
+            this.out.write(this.buffer, 0, this.count);
+            this.count = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        this.out.flush();
+    }
+
+    /**
+     * flush the writer, the output isn't closed (it can be System.out)
+     *
+     * @throws IOException can't write
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+}
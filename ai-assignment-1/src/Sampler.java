@@ -0,0 +1,342 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Approximate inference of query by sampling the requisite variables of the network.
+ * The samples are taken by chunks, every chunk with its own random generator (split from the random generator
+ * of the query), and summed to statistics that are merged at the end. The chunks run in rounds on the common
+ * ForkJoinPool, until the samples budget is used, or until the confidence interval is narrow enough.
+ * The chunks, their generators and the order of merging their statistics don't depend on the count of the
+ * threads, so the results are the same on any count of threads.
+ */
+public abstract class Sampler {
+    /**
+     * task of range of chunks, split to halves until single chunk
+     */
+    @SuppressWarnings("serial")
+    private static final class ChunksTask extends RecursiveTask<double[]> {
+        private final Sampler sampler;
+        private final SplittableRandom[] randoms;
+        private final int[] lengths;
+        private final int from;
+        private final int to;
+        private final boolean parallel;
+
+        private ChunksTask(Sampler sampler, SplittableRandom[] randoms, int[] lengths, int from, int to, boolean parallel) {
+            this.sampler = sampler;
+            this.randoms = randoms;
+            this.lengths = lengths;
+            this.from = from;
+            this.to = to;
+            this.parallel = parallel;
+        }
+
+        @Override
+        protected double[] compute() {
+            if (this.to - this.from == 1) {
+                double[] stats = new double[this.sampler.statsLength()];
+                this.sampler.sampleChunk(this.randoms[this.from], this.lengths[this.from], stats);
+
+                return stats;
+            }
+
+            int middle = (this.from + this.to) >>> 1;
+            ChunksTask left = new ChunksTask(this.sampler, this.randoms, this.lengths, this.from, middle, this.parallel);
+            ChunksTask right = new ChunksTask(this.sampler, this.randoms, this.lengths, middle, this.to, this.parallel);
+
+            double[] leftStats;
+            double[] stats;
+            if (this.parallel) {
+                left.fork();
+                stats = right.compute();
+                leftStats = left.join();
+            } else {
+                leftStats = left.compute();
+                stats = right.compute();
+            }
+
+            // the same order of sums for both ways
+            for (int i = 0; i < stats.length; i++) {
+                stats[i] = leftStats[i] + stats[i];
+            }
+
+            return stats;
+        }
+    }
+
+    /**
+     * count of samples of every chunk
+     */
+    static final int CHUNK_LENGTH = 1 << 12;
+
+    /**
+     * max count of chunks of every round, the confidence interval is checked after every round
+     */
+    static final int ROUND_CHUNKS = 32;
+
+    /**
+     * the index of the count of additions in the statistics
+     */
+    static final int ADDITIONS = 0;
+
+    /**
+     * the index of the count of multiplies in the statistics
+     */
+    static final int MULTIPLIES = 1;
+
+    /**
+     * the z value of 95% confidence interval
+     */
+    private static final double Z_95 = 1.959964;
+
+    /**
+     * the samples budget of every query
+     */
+    private static long samples = 100000;
+
+    /**
+     * the target width of the 95% confidence interval, 0 for using all the samples budget
+     */
+    private static double confidenceWidth = 0;
+
+    /**
+     * the seed of the random generators
+     */
+    private static long seed = 1;
+
+    /**
+     * set the samples budget of every query
+     *
+     * @param samples the max count of samples
+     */
+    public static void setSamples(long samples) {
+        Sampler.samples = samples;
+    }
+
+    /**
+     * set the target width of the 95% confidence interval,
+     * the sampling stops when the interval is narrower (or when the samples budget is used)
+     *
+     * @param confidenceWidth the width, 0 for using all the samples budget
+     */
+    public static void setConfidenceWidth(double confidenceWidth) {
+        Sampler.confidenceWidth = confidenceWidth;
+    }
+
+    /**
+     * set the seed of the random generators
+     *
+     * @param seed the seed
+     */
+    public static void setSeed(long seed) {
+        Sampler.seed = seed;
+    }
+
+    // Members
+    /**
+     * the network of the query
+     */
+    protected final BNetwork network;
+
+    /**
+     * the query
+     */
+    protected final Query query;
+
+    /**
+     * the requisite variables (and the requisite evidences) by topological order
+     */
+    protected final int[] net;
+
+    /**
+     * True for the evidences in net, by the indexes of net
+     */
+    protected final boolean[] isEvidence;
+
+    /**
+     * the jumps of the parents of every variable in net, in the CPT of the variable
+     */
+    protected final int[][] parentsJumps;
+
+    /**
+     * the values of the evidences, by the variables keys (0 for the other variables)
+     */
+    protected final int[] initValues;
+
+    /**
+     * prepare sampling of query
+     *
+     * @param network the network
+     * @param query the query
+     */
+    protected Sampler(BNetwork network, Query query) {
+        this.network = network;
+        this.query = query;
+
+        // the requisite variables, the other variables don't change the probability of the query
+        int[] requisite = Relevance.requisite(network, query, null);
+        for (int evidence : query.evidencesVariables) {
+            requisite[evidence] += 2;
+        }
+
+        int netLength = 0;
+        for (int variable = 0; variable < requisite.length; variable++) {
+            netLength += (requisite[variable] & 1);
+        }
+
+        this.net = new int[netLength];
+        this.isEvidence = new boolean[netLength];
+        this.parentsJumps = new int[netLength][];
+        netLength = 0;
+        for (int variable : network.topologicalOrder) {
+            if ((requisite[variable] & 1) == 0) {
+                continue;
+            }
+
+            this.net[netLength] = variable;
+            this.isEvidence[netLength] = requisite[variable] == 3;
+
+            int[] parents = network.parents[variable];
+            this.parentsJumps[netLength] = new int[parents.length];
+            int jump = network.variablesLengths[variable];
+            for (int j = 0; j < parents.length; j++) {
+                this.parentsJumps[netLength][j] = jump;
+                jump *= network.variablesLengths[parents[j]];
+            }
+
+            netLength++;
+        }
+
+        this.initValues = new int[requisite.length];
+        for (int i = 0; i < query.evidencesVariables.length; i++) {
+            this.initValues[query.evidencesVariables[i]] = query.evidencesValues[i];
+        }
+    }
+
+    /**
+     * the index of the first value of variable in its CPT, by the values of its parents
+     *
+     * @param netIndex the index of the variable in net
+     * @param values the values of the variables
+     * @return the index of the row of the variable in the CPT
+     */
+    protected final int rowIndex(int netIndex, int[] values) {
+        int[] parents = this.network.parents[this.net[netIndex]];
+        int[] jumps = this.parentsJumps[netIndex];
+
+        int index = 0;
+        for (int j = 0; j < parents.length; j++) {
+            index += values[parents[j]] * jumps[j];
+        }
+
+        return index;
+    }
+
+    /**
+     * sample value from row of CPT
+     *
+     * @param random the random generator
+     * @param cpt the CPT
+     * @param row the index of the row in the CPT
+     * @param length the length of the variable
+     * @return the value
+     */
+    protected static int sampleRow(SplittableRandom random, double[] cpt, int row, int length) {
+        double u = random.nextDouble();
+        int value = 0;
+        double sum = cpt[row];
+
+        while (u >= sum && value < length - 1) {
+            value++;
+            sum += cpt[row + value];
+        }
+
+        return value;
+    }
+
+    /**
+     * sample the values of the non evidence variables of net from their CPTs, by the topological order
+     *
+     * @param random the random generator
+     * @param values the values of the variables, the values of the evidences are kept
+     */
+    protected final void sampleForward(SplittableRandom random, int[] values) {
+        for (int i = 0; i < this.net.length; i++) {
+            if (!this.isEvidence[i]) {
+                int variable = this.net[i];
+                values[variable] = sampleRow(random, this.network.CPTs[variable], rowIndex(i, values),
+                        this.network.variablesLengths[variable]);
+            }
+        }
+    }
+
+    /**
+     * count of the statistics of the sampler (with the counters)
+     *
+     * @return the length of the statistics
+     */
+    protected abstract int statsLength();
+
+    /**
+     * take chunk of samples and add them to the statistics
+     *
+     * @param random the random generator of the chunk
+     * @param length count of the samples
+     * @param stats the statistics
+     */
+    protected abstract void sampleChunk(SplittableRandom random, int length, double[] stats);
+
+    /**
+     * the estimate of the probability of the query
+     *
+     * @param stats the statistics
+     * @return the probability
+     */
+    protected abstract double estimate(double[] stats);
+
+    /**
+     * the standard error of the estimate
+     *
+     * @param stats the statistics
+     * @return the standard error
+     */
+    protected abstract double standardError(double[] stats);
+
+    /**
+     * run the sampling and set the results of the query
+     */
+    public void run() {
+        SplittableRandom root = new SplittableRandom(seed);
+        double[] stats = new double[statsLength()];
+        boolean parallel = ForkJoinPool.getCommonPoolParallelism() > 1;
+
+        long done = 0;
+        while (done < samples) {
+            // the chunks of the round
+            int chunks = (int) Math.min(ROUND_CHUNKS, (samples - done + CHUNK_LENGTH - 1) / CHUNK_LENGTH);
+            SplittableRandom[] randoms = new SplittableRandom[chunks];
+            int[] lengths = new int[chunks];
+            for (int c = 0; c < chunks; c++) {
+                randoms[c] = root.split();
+                lengths[c] = (int) Math.min(CHUNK_LENGTH, samples - done);
+                done += lengths[c];
+            }
+
+            ChunksTask task = new ChunksTask(this, randoms, lengths, 0, chunks, parallel && chunks > 1);
+            double[] roundStats = task.parallel ? ForkJoinPool.commonPool().invoke(task) : task.compute();
+            for (int i = 0; i < stats.length; i++) {
+                stats[i] += roundStats[i];
+            }
+
+            if (confidenceWidth > 0 && 2 * Z_95 * standardError(stats) <= confidenceWidth) {
+                break;
+            }
+        }
+
+        this.query.results.probability = estimate(stats);
+        this.query.results.error = Z_95 * standardError(stats);
+        this.query.results.additions += (int) stats[ADDITIONS];
+        this.query.results.multiplies += (int) stats[MULTIPLIES];
+    }
+}
@@ -14,9 +14,15 @@ public class VariableClass {
      */
     private final String[] values;
 
+    /**
+     * hash index of the values names
+     */
+    private final NameIndex valuesIndex;
+
     public VariableClass(String name, String[] values) {
         this.name = name;
         this.values = values;
+        this.valuesIndex = new NameIndex(values);
     }
 
     // getters
@@ -34,16 +40,32 @@ public class VariableClass {
      * get value key by name
      *
      * @param name the name of the value
-     * @return the index of the value in values
+     * @return the index of the value in values, -1 if this value not exists
      */
     public int getValueKey(String name) {
-        for (int i = 0; i < this.values.length; i++) {
-            if (this.values[i].equals(name)) {
-                return i;
-            }
-        }
+        return this.valuesIndex.getKey(name);
+    }
+
+    /**
+     * get value key by name in range of chars
+     *
+     * @param chars the chars, example: query line
+     * @param from the first index of the name
+     * @param to the end index of the name (exclusive)
+     * @return the key of the value, -1 if the value not exists
+     */
+    public int getValueKey(CharSequence chars, int from, int to) {
+        return this.valuesIndex.getKey(chars, from, to);
+    }
 
-        return -1;
+    /**
+     * get value name by key
+     *
+     * @param key the index of the value in values
+     * @return the name of the value
+     */
+    public String getValueName(int key) {
+        return this.values[key];
     }
 
     /**